@@ -4,7 +4,14 @@ import com.google.auth.oauth2.GoogleCredentials;
 import com.uid2.core.model.ConfigStore;
 import com.uid2.core.model.Constants;
 import com.uid2.core.model.SecretStore;
+import com.uid2.core.service.AdaptivePollingStore;
+import com.uid2.core.service.AttestationBulkhead;
+import com.uid2.core.service.AttestationResultCache;
 import com.uid2.core.service.AttestationService;
+import com.uid2.core.service.CachingAttestationTokenService;
+import com.uid2.core.service.CircuitBreakingAttestationProvider;
+import com.uid2.core.service.SwappingAttestationProvider;
+import com.uid2.core.vertx.CoreServices;
 import com.uid2.core.vertx.CoreVerticle;
 import com.uid2.shared.Const;
 import com.uid2.shared.Utils;
@@ -18,10 +25,12 @@ import com.uid2.shared.cloud.ICloudStorage;
 import com.uid2.shared.jmx.AdminApi;
 import com.uid2.shared.secure.AzureAttestationProvider;
 import com.uid2.shared.secure.GcpVmidAttestationProvider;
+import com.uid2.shared.secure.IAttestationProvider;
 import com.uid2.shared.secure.NitroAttestationProvider;
 import com.uid2.shared.secure.TrustedAttestationProvider;
 import com.uid2.shared.secure.nitro.InMemoryAWSCertificateStore;
 import com.uid2.shared.store.CloudPath;
+import com.uid2.shared.store.reader.IMetadataVersionedStore;
 import com.uid2.shared.store.scope.GlobalScope;
 import com.uid2.shared.vertx.RotatingStoreVerticle;
 import com.uid2.shared.vertx.VertxUtils;
@@ -30,12 +39,15 @@ import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.config.MeterFilter;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
 import io.micrometer.prometheus.PrometheusRenameFilter;
+import io.netty.channel.epoll.Epoll;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.impl.HttpUtils;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
 import io.vertx.micrometer.Label;
 import io.vertx.micrometer.MetricsDomain;
 import io.vertx.micrometer.MicrometerMetricsOptions;
@@ -45,6 +57,7 @@ import io.vertx.micrometer.backends.BackendRegistries;
 import javax.management.*;
 import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 
@@ -74,6 +87,11 @@ public class Main {
         setupMetrics(metricOptions);
         VertxOptions vertxOptions = getVertxOptions(metricOptions);
         Vertx vertx = Vertx.vertx(vertxOptions);
+        if (vertx.isNativeTransportEnabled()) {
+            System.out.println("Using native epoll transport");
+        } else {
+            System.out.println("Native epoll transport unavailable, using NIO: " + Epoll.unavailabilityCause());
+        }
 
         /*
         CommandLine commandLine = parseArgs(args);
@@ -106,23 +124,33 @@ public class Main {
 
             RotatingStoreVerticle enclaveRotatingVerticle = null;
             RotatingStoreVerticle operatorRotatingVerticle = null;
-            CoreVerticle coreVerticle = null;
+            CoreServices coreServices = null;
             try {
                 CloudPath operatorMetadataPath = new CloudPath(config.getString(Const.Config.OperatorsMetadataPathProp));
                 GlobalScope operatorScope = new GlobalScope(operatorMetadataPath);
                 RotatingOperatorKeyProvider operatorKeyProvider = new RotatingOperatorKeyProvider(cloudStorage, cloudStorage, operatorScope);
-                operatorRotatingVerticle = new RotatingStoreVerticle("operators", 60000, operatorKeyProvider);
+                operatorRotatingVerticle = createRotatingStoreVerticle("operators", operatorKeyProvider);
 
                 String enclaveMetadataPath = SecretStore.Global.get(EnclaveIdentifierProvider.ENCLAVES_METADATA_PATH);
                 EnclaveIdentifierProvider enclaveIdProvider = new EnclaveIdentifierProvider(cloudStorage, enclaveMetadataPath);
-                enclaveRotatingVerticle = new RotatingStoreVerticle("enclaves", 60000, enclaveIdProvider);
+                enclaveRotatingVerticle = createRotatingStoreVerticle("enclaves", enclaveIdProvider);
 
-                AttestationService attestationService = new AttestationService()
-                        .with("trusted", new TrustedAttestationProvider())
-                        .with("azure-sgx", new AzureAttestationProvider(
+                // the providers' allowlists are replaced by building a new provider, so share what they depend on
+                // a bulkhead slot is held until the provider answers, so a hung MAA connection must fail on its own
+                WebClient maaClient = WebClient.create(vertx, new WebClientOptions()
+                        .setIdleTimeout(getAttestationTimeoutMs("azure-sgx"))
+                        .setIdleTimeoutUnit(TimeUnit.MILLISECONDS));
+                InMemoryAWSCertificateStore awsCertificateStore = new InMemoryAWSCertificateStore();
+                AttestationBulkhead azureBulkhead = createAttestationBulkhead(vertx, "azure-sgx");
+                AttestationService attestationService = new AttestationService(new AttestationResultCache(
+                        Optional.ofNullable(ConfigStore.Global.getInteger("attestation_result_cache_ttl_seconds")).orElse(30) * 1000L,
+                        Optional.ofNullable(ConfigStore.Global.getInteger("attestation_result_cache_max_entries")).orElse(10000)))
+                        .with("trusted", new TrustedAttestationProvider(), createAttestationBulkhead(vertx, "trusted"))
+                        .with("azure-sgx", createCircuitBreaker(vertx, "azure-sgx", new SwappingAttestationProvider("azure-sgx", () -> new AzureAttestationProvider(
                                 ConfigStore.Global.getOrDefault("maa_server_base_url", "https://sharedeus.eus.attest.azure.net"),
-                                WebClient.create(vertx)))
-                        .with("aws-nitro", new NitroAttestationProvider(new InMemoryAWSCertificateStore()));
+                                maaClient)), azureBulkhead), azureBulkhead)
+                        .with("aws-nitro", new SwappingAttestationProvider("aws-nitro", () -> new NitroAttestationProvider(awsCertificateStore)),
+                                createAttestationBulkhead(vertx, "aws-nitro"));
 
                 // try read GoogleCredentials
                 GoogleCredentials googleCredentials = CloudUtils.getGoogleCredentialsFromConfig(config);
@@ -134,17 +162,26 @@ public class Main {
                     }
 
                     // enable gcp-vmid attestation if requested
+                    // it is not hedged: its attest is synchronous, so it answers before a hedge could be sent
                     attestationService
-                            .with("gcp-vmid", new GcpVmidAttestationProvider(googleCredentials, enclaveParams));
+                            .with("gcp-vmid", createCircuitBreaker(vertx, "gcp-vmid", new GcpVmidAttestationProvider(googleCredentials, enclaveParams), null),
+                                    createAttestationBulkhead(vertx, "gcp-vmid"));
                 }
 
-                IAttestationTokenService attestationTokenService = new AttestationTokenService(
-                        SecretStore.Global.get(Constants.AttestationEncryptionKeyName),
-                        SecretStore.Global.get(Constants.AttestationEncryptionSaltName),
-                        SecretStore.Global.getLongOrDefault(Constants.AttestationTokenLifetimeInSeconds, 7200)
-                );
+                final String attestationEncryptionKey = SecretStore.Global.get(Constants.AttestationEncryptionKeyName);
+                final String attestationEncryptionSalt = SecretStore.Global.get(Constants.AttestationEncryptionSaltName);
+                IAttestationTokenService attestationTokenService = new CachingAttestationTokenService(
+                        new AttestationTokenService(
+                                attestationEncryptionKey,
+                                attestationEncryptionSalt,
+                                SecretStore.Global.getLongOrDefault(Constants.AttestationTokenLifetimeInSeconds, 7200)
+                        ),
+                        attestationEncryptionKey,
+                        attestationEncryptionSalt,
+                        Optional.ofNullable(ConfigStore.Global.getInteger("attestation_token_cache_max_ttl_seconds")).orElse(3600) * 1000L,
+                        Optional.ofNullable(ConfigStore.Global.getInteger("attestation_token_cache_max_entries")).orElse(10000));
 
-                coreVerticle = new CoreVerticle(cloudStorage, operatorKeyProvider, attestationService, attestationTokenService, enclaveIdProvider);
+                coreServices = new CoreServices(cloudStorage, operatorKeyProvider, attestationService, attestationTokenService, enclaveIdProvider);
             } catch (Exception e) {
                 System.out.println("failed to initialize core verticle: " + e.getMessage());
                 System.exit(-1);
@@ -152,10 +189,62 @@ public class Main {
 
             vertx.deployVerticle(enclaveRotatingVerticle);
             vertx.deployVerticle(operatorRotatingVerticle);
-            vertx.deployVerticle(coreVerticle);
+            final CoreServices services = coreServices;
+            services.createExecutors(vertx);
+            final int instances = Optional.ofNullable(ConfigStore.Global.getInteger("core_verticle_instances"))
+                    .orElse(Runtime.getRuntime().availableProcessors());
+            vertx.deployVerticle(() -> new CoreVerticle(services), new DeploymentOptions().setInstances(instances));
         });
     }
 
+    /**
+     * Polls the store every store_refresh_interval_ms right after it changed, backing off to
+     * store_refresh_max_interval_ms while it stays the same.
+     */
+    private static RotatingStoreVerticle createRotatingStoreVerticle(String name, IMetadataVersionedStore store) {
+        final int intervalMs = Optional.ofNullable(ConfigStore.Global.getInteger("store_refresh_interval_ms")).orElse(60000);
+        final int maxIntervalMs = Optional.ofNullable(ConfigStore.Global.getInteger("store_refresh_max_interval_ms")).orElse(300000);
+        return new RotatingStoreVerticle(name, intervalMs, new AdaptivePollingStore(store, intervalMs, maxIntervalMs));
+    }
+
+    /**
+     * Reads the attestation limits of a protocol, e.g. attestation_azure_sgx_max_concurrent, falling back to the
+     * limits shared by all protocols, e.g. attestation_max_concurrent.
+     */
+    private static AttestationBulkhead createAttestationBulkhead(Vertx vertx, String protocol) {
+        final String prefix = "attestation_" + protocol.replace('-', '_');
+        return new AttestationBulkhead(vertx, protocol,
+                getAttestationLimit(prefix + "_max_concurrent", "attestation_max_concurrent", 50),
+                getAttestationLimit(prefix + "_max_queued", "attestation_max_queued", 200),
+                getAttestationTimeoutMs(protocol));
+    }
+
+    private static int getAttestationTimeoutMs(String protocol) {
+        return getAttestationLimit("attestation_" + protocol.replace('-', '_') + "_timeout_ms", "attestation_timeout_ms", 10000);
+    }
+
+    /**
+     * Wraps a provider that verifies attestations against a remote service, configured the same way as the limits.
+     * Hedging is off unless the protocol's bulkhead is given, for the hedges to take their slots from, and a
+     * percentile, e.g. 0.95, is configured.
+     */
+    private static IAttestationProvider createCircuitBreaker(Vertx vertx, String protocol, IAttestationProvider provider, AttestationBulkhead hedgeBulkhead) {
+        final String prefix = "attestation_" + protocol.replace('-', '_');
+        final String hedgePercentile = Optional.ofNullable(ConfigStore.Global.get(prefix + "_hedge_percentile"))
+                .orElse(ConfigStore.Global.getOrDefault("attestation_hedge_percentile", "0"));
+        return new CircuitBreakingAttestationProvider(vertx, protocol, provider,
+                getAttestationLimit(prefix + "_circuit_failure_threshold", "attestation_circuit_failure_threshold", 5),
+                getAttestationLimit(prefix + "_circuit_open_ms", "attestation_circuit_open_ms", 30000),
+                getAttestationTimeoutMs(protocol),
+                Double.parseDouble(hedgePercentile),
+                hedgeBulkhead);
+    }
+
+    private static int getAttestationLimit(String protocolKey, String key, int defaultValue) {
+        return Optional.ofNullable(ConfigStore.Global.getInteger(protocolKey))
+                .orElse(Optional.ofNullable(ConfigStore.Global.getInteger(key)).orElse(defaultValue));
+    }
+
     private static void setupMetrics(MicrometerMetricsOptions metricOptions) {
         BackendRegistries.setupBackend(metricOptions);
 
@@ -215,9 +304,11 @@ public class Main {
                 ? 60 * 1000
                 : 3600 * 1000;
 
+        // falls back to NIO when the native transport for this platform is not on the classpath
         return new VertxOptions()
                 .setMetricsOptions(metricOptions)
-                .setBlockedThreadCheckInterval(threadBlockedCheckInterval);
+                .setBlockedThreadCheckInterval(threadBlockedCheckInterval)
+                .setPreferNativeTransport(true);
     }
 
     private static MicrometerMetricsOptions getMetricOptions(VertxPrometheusOptions promOptions) {
@@ -0,0 +1,34 @@
+package com.uid2.core.handler;
+
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Keeps the server's response compression off responses smaller than the threshold, where the gzip framing
+ * outweighs the saving. Marking a response identity makes Vert.x skip compressing it and drop the header.
+ */
+public class CompressionThresholdHandler implements Handler<RoutingContext> {
+    private final int thresholdBytes;
+
+    public CompressionThresholdHandler(int thresholdBytes) {
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    @Override
+    public void handle(RoutingContext rc) {
+        rc.addHeadersEndHandler(v -> {
+            final HttpServerResponse response = rc.response();
+            if (response.headers().contains(HttpHeaders.CONTENT_ENCODING)) {
+                return;
+            }
+
+            final String contentLength = response.headers().get(HttpHeaders.CONTENT_LENGTH);
+            if (contentLength != null && Long.parseLong(contentLength) < thresholdBytes) {
+                response.putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+            }
+        });
+        rc.next();
+    }
+}
@@ -0,0 +1,88 @@
+package com.uid2.core.model;
+
+import com.uid2.core.util.ContentEncoding;
+import io.vertx.core.buffer.Buffer;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A metadata document as served to operators, with locations already rewritten, together with
+ * its encoded response body. Instances are shared between requests and must not be modified.
+ * The path is the resolved metadata path the document was loaded from, and the version identifies the
+ * underlying metadata file content, not the pre-signed URLs in the body.
+ * A stale document is the last good copy, served because reloading it from storage failed.
+ * A compressed document also carries its body in each content encoding, built once when it is loaded
+ * so that responses only pick the body matching the client's Accept-Encoding.
+ */
+public class MetadataDocument {
+    private final String path;
+    private final Buffer body;
+    private final String version;
+    private final boolean stale;
+    private final Map<String, Buffer> encodedBodies;
+
+    public MetadataDocument(String path, Buffer body, String version) {
+        this(path, body, version, false, Collections.emptyMap());
+    }
+
+    private MetadataDocument(String path, Buffer body, String version, boolean stale, Map<String, Buffer> encodedBodies) {
+        this.path = path;
+        this.body = body;
+        this.version = version;
+        this.stale = stale;
+        this.encodedBodies = encodedBodies;
+    }
+
+    public MetadataDocument asStale() {
+        return stale ? this : new MetadataDocument(path, body, version, true, encodedBodies);
+    }
+
+    /**
+     * Returns a copy carrying the body in every encoding of {@link ContentEncoding}, or this document if
+     * its body is smaller than the threshold.
+     */
+    public MetadataDocument compress(int level, int thresholdBytes) {
+        if (body.length() < thresholdBytes) {
+            return this;
+        }
+
+        final Map<String, Buffer> encoded = new HashMap<>();
+        encoded.put(ContentEncoding.GZIP, ContentEncoding.encode(body, ContentEncoding.GZIP, level));
+        encoded.put(ContentEncoding.DEFLATE, ContentEncoding.encode(body, ContentEncoding.DEFLATE, level));
+        return new MetadataDocument(path, body, version, stale, Collections.unmodifiableMap(encoded));
+    }
+
+    public static String versionOf(byte[] original) {
+        return DigestUtils.sha256Hex(original);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Buffer getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the body in the given content encoding, or null if the document was not compressed with it.
+     */
+    public Buffer getBody(String contentEncoding) {
+        return encodedBodies.get(contentEncoding);
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public String getETag() {
+        return "\"" + version + "\"";
+    }
+}
@@ -0,0 +1,89 @@
+package com.uid2.core.model;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The encoded form of one version of a metadata file, split around its location values.
+ * Rendering only splices freshly pre-signed URLs between the pre-encoded segments, so a new
+ * response body does not need the metadata file to be decoded and re-encoded again.
+ */
+public class MetadataTemplate {
+    private final String version;
+    private final List<byte[]> segments;
+    private final List<String> locations;
+
+    public MetadataTemplate(String version, List<byte[]> segments, List<String> locations) {
+        if (segments.size() != locations.size() + 1) {
+            throw new IllegalArgumentException("expected " + (locations.size() + 1) + " segments, got " + segments.size());
+        }
+        this.version = version;
+        this.segments = segments;
+        this.locations = Collections.unmodifiableList(locations);
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public List<String> getLocations() {
+        return locations;
+    }
+
+    /**
+     * Renders the document with the given URLs in place of the locations, in the same order, into a
+     * direct buffer that can be written to any number of responses without being copied again.
+     */
+    public MetadataDocument render(String path, List<String> urls) {
+        if (urls.size() != locations.size()) {
+            throw new IllegalArgumentException("expected " + locations.size() + " urls, got " + urls.size());
+        }
+
+        final List<byte[]> values = new ArrayList<>(urls.size());
+        int size = 0;
+        for (byte[] segment : segments) {
+            size += segment.length;
+        }
+        for (String url : urls) {
+            final byte[] value = encodeString(url);
+            values.add(value);
+            size += value.length;
+        }
+
+        final ByteBuffer body = ByteBuffer.allocateDirect(size);
+        body.put(segments.get(0));
+        for (int i = 0; i < values.size(); i++) {
+            body.put(values.get(i));
+            body.put(segments.get(i + 1));
+        }
+        body.flip();
+
+        // the JDK owns the direct memory and frees it once the document is unreachable, so the buffer
+        // is never released and can be shared by every response of this document
+        return new MetadataDocument(path, Buffer.buffer(Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(body))), version);
+    }
+
+    private static byte[] encodeString(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\' || c > 0x7e) {
+                return Json.encode(value).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        final byte[] quoted = new byte[value.length() + 2];
+        quoted[0] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            quoted[i + 1] = (byte) value.charAt(i);
+        }
+        quoted[quoted.length - 1] = '"';
+        return quoted;
+    }
+}
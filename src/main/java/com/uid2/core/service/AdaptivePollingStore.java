@@ -0,0 +1,73 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.store.reader.IMetadataVersionedStore;
+import io.vertx.core.json.JsonObject;
+
+import java.time.Clock;
+
+/**
+ * Spaces out the metadata reads of a store that a RotatingStoreVerticle polls at the minimum interval.
+ * Right after the store's version changes, metadata is read from storage on every poll; each poll that
+ * finds the same version doubles the interval, up to the maximum, and the polls in between return the
+ * last metadata read, which the verticle sees as unchanged. Content is still loaded only when the version
+ * is newer, so unchanged polls never parse the store or notify its listeners. The verticle still counts and
+ * times the polls in between as refreshes, so the minimum interval should stay at the verticle's usual interval.
+ */
+public class AdaptivePollingStore implements IMetadataVersionedStore {
+    private final IMetadataVersionedStore store;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final Clock clock;
+
+    private JsonObject lastMetadata;
+    private long lastVersion;
+    private long lastReadAt;
+    private long intervalMs;
+
+    public AdaptivePollingStore(IMetadataVersionedStore store, long minIntervalMs, long maxIntervalMs) {
+        this(store, minIntervalMs, maxIntervalMs, Clock.systemUTC());
+    }
+
+    public AdaptivePollingStore(IMetadataVersionedStore store, long minIntervalMs, long maxIntervalMs, Clock clock) {
+        this.store = store;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        this.clock = clock;
+        this.intervalMs = minIntervalMs;
+    }
+
+    @Override
+    public synchronized JsonObject getMetadata() throws Exception {
+        final long now = clock.millis();
+        // polls land on multiples of the minimum interval, give or take timer jitter
+        if (lastMetadata != null && now - lastReadAt < intervalMs - minIntervalMs / 2) {
+            return lastMetadata;
+        }
+
+        final JsonObject metadata = store.getMetadata();
+        final long version = store.getVersion(metadata);
+        if (lastMetadata != null && version == lastVersion) {
+            intervalMs = Math.min(intervalMs * 2, maxIntervalMs);
+        } else {
+            intervalMs = minIntervalMs;
+        }
+        lastMetadata = metadata;
+        lastVersion = version;
+        lastReadAt = now;
+        return metadata;
+    }
+
+    @Override
+    public long getVersion(JsonObject metadata) {
+        return store.getVersion(metadata);
+    }
+
+    @Override
+    public long loadContent(JsonObject metadata) throws Exception {
+        return store.loadContent(metadata);
+    }
+
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+}
@@ -0,0 +1,228 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.secure.AttestationResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * Limits the attestations of one protocol, so a slow attestation backend (e.g. Azure MAA) cannot pile up
+ * unbounded in-flight requests or hold back the other protocols. Up to the concurrency limit run at once,
+ * up to the queue limit wait for a slot, and anything beyond is rejected straight away with {@link Busy}.
+ * An attestation that has not completed within the timeout, counted from submission, fails with
+ * {@link Timeout}. A running attestation keeps its slot until the provider answers, so the limit always bounds
+ * the calls actually outstanding against the backend; its late result is not passed on.
+ * Results are delivered on the context the attestation was submitted from.
+ * <p>
+ * Providers are expected to always answer, e.g. through their HTTP client's idle timeout. As a last resort, the
+ * slot of a call the provider has not answered {@value #SLOT_RECLAIM_MULTIPLE} times the timeout after submission
+ * is reclaimed, and counted, so a provider that never calls back cannot take the protocol's slots for good.
+ */
+public class AttestationBulkhead {
+    static final int SLOT_RECLAIM_MULTIPLE = 3;
+
+    private final Vertx vertx;
+    private final String protocol;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long timeoutMs;
+    private final Queue<Call> queued = new ArrayDeque<>();
+    private final Counter rejectedCounter;
+    private final Counter reclaimedCounter;
+    private int inFlight;
+
+    public AttestationBulkhead(Vertx vertx, String protocol, int maxConcurrent, int maxQueued, long timeoutMs) {
+        this.vertx = vertx;
+        this.protocol = protocol;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.timeoutMs = timeoutMs;
+        Gauge.builder("uid2.core.attestation.in_flight", this, AttestationBulkhead::getInFlight)
+                .description("gauge for attestations currently running against the protocol's provider")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("uid2.core.attestation.queued", this, AttestationBulkhead::getQueued)
+                .description("gauge for attestations waiting for a slot of the protocol")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+        this.rejectedCounter = Counter.builder("uid2.core.attestation.rejected")
+                .description("counter for attestations rejected because the protocol's limits were reached")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+        this.reclaimedCounter = Counter.builder("uid2.core.attestation.reclaimed_slots")
+                .description("counter for attestation slots reclaimed because the provider never answered")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static AttestationBulkhead unbounded(String protocol) {
+        return new AttestationBulkhead(null, protocol, Integer.MAX_VALUE, 0, 0);
+    }
+
+    /**
+     * Runs the attestation only if a slot is free right now and no attestation is waiting for one, and returns
+     * false without calling the handler otherwise. For optional extra calls, such as hedges, which must neither
+     * queue nor exceed the concurrency limit.
+     */
+    public boolean tryExecute(Consumer<Handler<AsyncResult<AttestationResult>>> attestation, Handler<AsyncResult<AttestationResult>> handler) {
+        final Call call = new Call(attestation, handler);
+        synchronized (this) {
+            if (inFlight >= maxConcurrent || !queued.isEmpty()) {
+                return false;
+            }
+            inFlight++;
+            call.started = true;
+        }
+        call.scheduleTimeout();
+        call.start();
+        return true;
+    }
+
+    public void execute(Consumer<Handler<AsyncResult<AttestationResult>>> attestation, Handler<AsyncResult<AttestationResult>> handler) {
+        final Call call = new Call(attestation, handler);
+        synchronized (this) {
+            if (inFlight < maxConcurrent) {
+                inFlight++;
+                call.started = true;
+            } else if (queued.size() < maxQueued) {
+                queued.add(call);
+                call.scheduleTimeout();
+                return;
+            } else {
+                rejectedCounter.increment();
+                handler.handle(Future.failedFuture(new Busy(protocol)));
+                return;
+            }
+        }
+        call.scheduleTimeout();
+        call.start();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queued.size();
+    }
+
+    private void release() {
+        final Call next;
+        synchronized (this) {
+            next = queued.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+            next.started = true;
+        }
+        next.start();
+    }
+
+    // a call's state is guarded by the bulkhead's lock, so a queued call either times out or starts, never both
+    private class Call {
+        private final Consumer<Handler<AsyncResult<AttestationResult>>> attestation;
+        private final Handler<AsyncResult<AttestationResult>> handler;
+        private final Context context = Vertx.currentContext();
+        private boolean started;
+        private boolean answered;
+        private boolean delivered;
+        private volatile long timerId = -1;
+
+        Call(Consumer<Handler<AsyncResult<AttestationResult>>> attestation, Handler<AsyncResult<AttestationResult>> handler) {
+            this.attestation = attestation;
+            this.handler = handler;
+        }
+
+        void scheduleTimeout() {
+            if (timeoutMs > 0) {
+                timerId = vertx.setTimer(timeoutMs, id -> timeOut());
+            }
+        }
+
+        void start() {
+            try {
+                attestation.accept(this::complete);
+            } catch (RuntimeException e) {
+                complete(Future.failedFuture(e));
+            }
+        }
+
+        private void complete(AsyncResult<AttestationResult> result) {
+            final boolean deliver;
+            synchronized (AttestationBulkhead.this) {
+                if (answered) {
+                    return;
+                }
+                answered = true;
+                deliver = !delivered;
+                delivered = true;
+            }
+            if (timerId != -1) {
+                vertx.cancelTimer(timerId);
+            }
+            release();
+            if (deliver) {
+                deliver(result);
+            }
+        }
+
+        private void timeOut() {
+            synchronized (AttestationBulkhead.this) {
+                if (delivered) {
+                    return;
+                }
+                delivered = true;
+                if (!started) {
+                    queued.remove(this);
+                } else {
+                    timerId = vertx.setTimer(timeoutMs * (SLOT_RECLAIM_MULTIPLE - 1), id -> reclaim());
+                }
+            }
+            deliver(Future.failedFuture(new Timeout(protocol, timeoutMs)));
+        }
+
+        private void reclaim() {
+            synchronized (AttestationBulkhead.this) {
+                if (answered) {
+                    return;
+                }
+                answered = true;
+            }
+            reclaimedCounter.increment();
+            release();
+        }
+
+        private void deliver(AsyncResult<AttestationResult> result) {
+            if (context != null) {
+                context.runOnContext(v -> handler.handle(result));
+            } else {
+                handler.handle(result);
+            }
+        }
+    }
+
+    /**
+     * The protocol's concurrency and queue limits are both reached.
+     */
+    public static class Busy extends Exception {
+        public Busy(String protocol) {
+            super("too many attestations in progress for " + protocol);
+        }
+    }
+
+    public static class Timeout extends Exception {
+        public Timeout(String protocol, long timeoutMs) {
+            super(protocol + " attestation did not complete within " + timeoutMs + "ms");
+        }
+    }
+}
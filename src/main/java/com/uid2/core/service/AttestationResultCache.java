@@ -0,0 +1,127 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.secure.AttestationFailure;
+import com.uid2.shared.secure.AttestationResult;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Caches attestation results by protocol, attestation request and public key, so an operator retrying with
+ * the same attestation document gets the earlier result instead of another attestation. Concurrent
+ * attestations of the same document share one call to the provider.
+ * <p>
+ * Entries live for the TTL, which must stay within the freshness window of the attestation documents,
+ * so a document is never accepted from the cache after the provider would have rejected it as too old.
+ * Only successful attestations and definitive rejections of the enclave or its certificate are cached.
+ * Anything that may pass on a retry, such as an exception, an unknown failure or a bad payload, which is also
+ * how a remote provider reports an error response, is not cached. The cache is cleared whenever the enclave
+ * allowlist changes.
+ */
+public class AttestationResultCache {
+    private final long ttlMs;
+    private final int maxEntries;
+    private final Clock clock;
+    private final Map<String, Entry> entries;
+
+    public AttestationResultCache(long ttlMs, int maxEntries) {
+        this(ttlMs, maxEntries, Clock.systemUTC());
+    }
+
+    public AttestationResultCache(long ttlMs, int maxEntries, Clock clock) {
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > AttestationResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static AttestationResultCache disabled() {
+        return new AttestationResultCache(0, 0);
+    }
+
+    /**
+     * Completes the handler with the cached result for the request, or with the result of the given
+     * attestation, which is only run on a cache miss.
+     */
+    public void attest(String protocol, byte[] request, byte[] publicKey,
+                       Consumer<Handler<AsyncResult<AttestationResult>>> attestation,
+                       Handler<AsyncResult<AttestationResult>> handler) {
+        if (ttlMs <= 0) {
+            attestation.accept(handler);
+            return;
+        }
+
+        final String key = protocol + "/" + DigestUtils.sha256Hex(request) + "/" + DigestUtils.sha256Hex(publicKey);
+        final long now = clock.millis();
+        final Entry entry;
+        final boolean hit;
+        synchronized (entries) {
+            final Entry cached = entries.get(key);
+            hit = cached != null && now - cached.createdAt < ttlMs;
+            if (hit) {
+                entry = cached;
+            } else {
+                entry = new Entry(now);
+                entries.put(key, entry);
+            }
+        }
+
+        if (!hit) {
+            entry.result.future().onComplete(ar -> {
+                if (!isCacheable(ar)) {
+                    synchronized (entries) {
+                        entries.remove(key, entry);
+                    }
+                }
+            });
+            try {
+                attestation.accept(entry.result::handle);
+            } catch (RuntimeException e) {
+                entry.result.tryFail(e);
+            }
+        }
+        entry.result.future().onComplete(handler);
+    }
+
+    private static boolean isCacheable(AsyncResult<AttestationResult> ar) {
+        if (ar.failed()) {
+            return false;
+        }
+
+        final AttestationFailure failure = ar.result().getFailure();
+        return ar.result().isSuccess() || failure == AttestationFailure.FORBIDDEN_ENCLAVE || failure == AttestationFailure.BAD_CERTIFICATE;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+        final long createdAt;
+        final Promise<AttestationResult> result = Promise.promise();
+
+        Entry(long createdAt) {
+            this.createdAt = createdAt;
+        }
+    }
+}
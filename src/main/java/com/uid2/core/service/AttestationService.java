@@ -11,21 +11,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class AttestationService implements IOperatorChangeHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(AttestationService.class);
 
     private final Map<String, IAttestationProvider> protocols;
-    private final AtomicReference<Set<EnclaveIdentifier>> activeOperatorIdentifiers;
+    private final Map<String, AttestationBulkhead> bulkheads;
+    private final AttestationResultCache resultCache;
+    private Map<String, Set<String>> enclaveIdentifiers = new HashMap<>();
 
     public AttestationService() {
+        this(AttestationResultCache.disabled());
+    }
+
+    public AttestationService(AttestationResultCache resultCache) {
         protocols = new HashMap<>();
-        activeOperatorIdentifiers = new AtomicReference<>(new HashSet<>());
+        bulkheads = new HashMap<>();
+        this.resultCache = resultCache;
     }
 
     public AttestationService with(String name, IAttestationProvider protocol) {
+        return with(name, protocol, AttestationBulkhead.unbounded(name));
+    }
+
+    public AttestationService with(String name, IAttestationProvider protocol, AttestationBulkhead bulkhead) {
         this.protocols.put(name, protocol);
+        this.bulkheads.put(name, bulkhead);
         return this;
     }
 
@@ -34,11 +45,11 @@ public class AttestationService implements IOperatorChangeHandler {
                        String base64EncodedPublicKey,
                        Handler<AsyncResult<AttestationResult>> handler)
             throws AttestationService.NotFound {
-        this.get(protocol)
-                .attest(
-                        Base64.getDecoder().decode(base64EncodedRequest),
-                        Base64.getDecoder().decode(base64EncodedPublicKey),
-                        handler);
+        final IAttestationProvider provider = this.get(protocol);
+        final byte[] request = Base64.getDecoder().decode(base64EncodedRequest);
+        final byte[] publicKey = Base64.getDecoder().decode(base64EncodedPublicKey);
+        final AttestationBulkhead bulkhead = this.bulkheads.get(protocol);
+        resultCache.attest(protocol, request, publicKey, h -> bulkhead.execute(b -> provider.attest(request, publicKey, b), h), handler);
     }
 
     public void registerEnclave(String protocol, String identifier)
@@ -65,31 +76,53 @@ public class AttestationService implements IOperatorChangeHandler {
         throw new AttestationService.NotFound(name);
     }
 
+    /**
+     * Applies the difference between the previous and the new enclave identifiers, protocol by protocol.
+     * Protocols whose identifiers did not change are left alone, and the rest get their changes in one batch.
+     */
     @Override
     public synchronized void handle(Set<EnclaveIdentifier> newSet) {
-        Set<EnclaveIdentifier> oldSet = new HashSet<>(activeOperatorIdentifiers.get());
-        Set<EnclaveIdentifier> itemsToAdd = new HashSet<>(newSet);
-        itemsToAdd.removeAll(oldSet);
-        Set<EnclaveIdentifier> itemsToRemove = oldSet;
-        itemsToRemove.removeAll(newSet);
-
-        for (EnclaveIdentifier id : itemsToAdd) {
-            try {
-                registerEnclave(id.getProtocol(), id.getIdentifier());
-            } catch (Exception e) {
-                LOGGER.warn("exception while processing enclave profile: " + e.getMessage());
-            }
+        final Map<String, Set<String>> next = new HashMap<>();
+        for (EnclaveIdentifier id : newSet) {
+            next.computeIfAbsent(id.getProtocol(), p -> new HashSet<>()).add(id.getIdentifier());
         }
 
-        for (EnclaveIdentifier id : itemsToRemove) {
-            try {
-                unregisterEnclave(id.getProtocol(), id.getIdentifier());
-            } catch (Exception e) {
-                LOGGER.warn("exception while processing enclave profile: " + e.getMessage());
+        final Set<String> protocolNames = new HashSet<>(next.keySet());
+        protocolNames.addAll(enclaveIdentifiers.keySet());
+        boolean changed = false;
+        for (String protocol : protocolNames) {
+            final Set<String> oldIds = enclaveIdentifiers.getOrDefault(protocol, Collections.emptySet());
+            final Set<String> newIds = next.getOrDefault(protocol, Collections.emptySet());
+            if (oldIds.equals(newIds)) {
+                continue;
             }
+            changed = true;
+
+            final IAttestationProvider provider = protocols.get(protocol);
+            if (provider == null) {
+                LOGGER.warn("exception while processing enclave profile: " + protocol);
+                continue;
+            }
+            final List<String> added = new ArrayList<>();
+            for (String id : newIds) {
+                if (!oldIds.contains(id)) {
+                    added.add(id);
+                }
+            }
+            final List<String> removed = new ArrayList<>();
+            for (String id : oldIds) {
+                if (!newIds.contains(id)) {
+                    removed.add(id);
+                }
+            }
+            SwappingAttestationProvider.update(provider, added, removed);
         }
 
-        this.activeOperatorIdentifiers.set(newSet);
+        this.enclaveIdentifiers = next;
+        if (changed) {
+            // results attested against the old allowlist may no longer hold
+            this.resultCache.clear();
+        }
     }
 
     public class NotFound extends Exception {
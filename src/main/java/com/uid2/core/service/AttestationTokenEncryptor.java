@@ -0,0 +1,81 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.Const;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encrypts attestation tokens with the public key the enclave attested. Cipher and KeyFactory instances
+ * are kept per thread, since looking them up through the JCA providers costs more than the encryption
+ * itself, and parsed public keys are kept in a small LRU keyed by their encoded form, as an enclave
+ * presents the same key each time it re-attests.
+ */
+public class AttestationTokenEncryptor {
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(Const.Name.AsymetricEncryptionCipherClass);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<KeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance(Const.Name.AsymetricEncryptionKeyClass);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int maxPublicKeys;
+    private final Map<ByteBuffer, PublicKey> publicKeys;
+
+    public AttestationTokenEncryptor(int maxPublicKeys) {
+        this.maxPublicKeys = maxPublicKeys;
+        this.publicKeys = new LinkedHashMap<ByteBuffer, PublicKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PublicKey> eldest) {
+                return size() > AttestationTokenEncryptor.this.maxPublicKeys;
+            }
+        };
+    }
+
+    /**
+     * Returns the token encrypted with the given X.509 encoded public key, base64 encoded.
+     */
+    public String encrypt(String token, byte[] encodedPublicKey) throws GeneralSecurityException {
+        final Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, getPublicKey(encodedPublicKey));
+        return Base64.getEncoder().encodeToString(cipher.doFinal(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public int getPublicKeyCount() {
+        synchronized (publicKeys) {
+            return publicKeys.size();
+        }
+    }
+
+    private PublicKey getPublicKey(byte[] encodedPublicKey) throws GeneralSecurityException {
+        final ByteBuffer key = ByteBuffer.wrap(encodedPublicKey.clone());
+        synchronized (publicKeys) {
+            final PublicKey publicKey = publicKeys.get(key);
+            if (publicKey != null) {
+                return publicKey;
+            }
+        }
+
+        final PublicKey publicKey = KEY_FACTORY.get().generatePublic(new X509EncodedKeySpec(encodedPublicKey));
+        synchronized (publicKeys) {
+            publicKeys.put(key, publicKey);
+        }
+        return publicKey;
+    }
+}
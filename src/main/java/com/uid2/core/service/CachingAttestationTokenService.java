@@ -0,0 +1,140 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.attest.AttestationToken;
+import com.uid2.shared.attest.IAttestationTokenService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers attestation tokens that the wrapped service validated for an operator key, so the
+ * AttestationMiddleware check on every refresh call is a map lookup instead of deriving the AES key and
+ * decrypting the token again; an operator presents the same token for its whole lifetime. Only successful
+ * validations are cached, keyed by the token and the operator key together. Each entry expires at the token's
+ * own expiry, or after the max TTL if that is sooner, so a token is never accepted past its expiry and the
+ * wrapped service still sees every token again at least once per max TTL. Once the cache holds the max entries, expired entries are dropped and new tokens are not cached until
+ * there is room.
+ */
+public class CachingAttestationTokenService implements IAttestationTokenService {
+    private final IAttestationTokenService delegate;
+    private final String encryptionKey;
+    private final String encryptionSalt;
+    private final long maxTtlMs;
+    private final int maxEntries;
+    private final Clock clock;
+    private final Map<TokenKey, Long> validTokens = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public CachingAttestationTokenService(IAttestationTokenService delegate, String encryptionKey, String encryptionSalt,
+                                          long maxTtlMs, int maxEntries) {
+        this(delegate, encryptionKey, encryptionSalt, maxTtlMs, maxEntries, Clock.systemUTC());
+    }
+
+    public CachingAttestationTokenService(IAttestationTokenService delegate, String encryptionKey, String encryptionSalt,
+                                          long maxTtlMs, int maxEntries, Clock clock) {
+        this.delegate = delegate;
+        this.encryptionKey = encryptionKey;
+        this.encryptionSalt = encryptionSalt;
+        this.maxTtlMs = maxTtlMs;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.hitCounter = Counter.builder("uid2.core.attestation_token_cache.hits")
+                .description("counter for attestation tokens validated from the cache")
+                .register(Metrics.globalRegistry);
+        this.missCounter = Counter.builder("uid2.core.attestation_token_cache.misses")
+                .description("counter for attestation tokens validated by the wrapped service because they were not in the cache")
+                .register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public String createToken(String userToken) {
+        return delegate.createToken(userToken);
+    }
+
+    // required by the interface; tokens with a custom expiry are not created anywhere in this service
+    @Override
+    @Deprecated
+    public String createToken(String userToken, Instant expiresAt) {
+        return delegate.createToken(userToken, expiresAt);
+    }
+
+    @Override
+    public boolean validateToken(String userToken, String attestationToken) {
+        if (maxTtlMs <= 0 || maxEntries <= 0 || userToken == null || attestationToken == null) {
+            return delegate.validateToken(userToken, attestationToken);
+        }
+
+        final TokenKey key = new TokenKey(attestationToken, userToken);
+        final long now = clock.millis();
+        final Long validUntil = validTokens.get(key);
+        if (validUntil != null) {
+            if (validUntil > now) {
+                hits.incrementAndGet();
+                hitCounter.increment();
+                return true;
+            }
+            validTokens.remove(key, validUntil);
+        }
+
+        misses.incrementAndGet();
+        missCounter.increment();
+        if (!delegate.validateToken(userToken, attestationToken)) {
+            return false;
+        }
+
+        final long expiresAt = AttestationToken.fromEncrypted(attestationToken, encryptionKey, encryptionSalt).getExpiresAt().toEpochMilli();
+        final long until = Math.min(expiresAt, now + maxTtlMs);
+        if (validTokens.size() >= maxEntries) {
+            validTokens.values().removeIf(u -> u <= now);
+        }
+        if (until > now && validTokens.size() < maxEntries) {
+            validTokens.put(key, until);
+        }
+        return true;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return validTokens.size();
+    }
+
+    private static class TokenKey {
+        private final String attestationToken;
+        private final String userToken;
+
+        TokenKey(String attestationToken, String userToken) {
+            this.attestationToken = attestationToken;
+            this.userToken = userToken;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TokenKey)) {
+                return false;
+            }
+            final TokenKey other = (TokenKey) o;
+            return Objects.equals(attestationToken, other.attestationToken) && Objects.equals(userToken, other.userToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(attestationToken) + Objects.hashCode(userToken);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.secure.AttestationException;
+import com.uid2.shared.secure.AttestationFailure;
+import com.uid2.shared.secure.AttestationResult;
+import com.uid2.shared.secure.IAttestationProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps an attestation provider that depends on a remote service (e.g. Azure MAA) with a circuit breaker.
+ * After the given number of consecutive failed calls the circuit opens and attestations fail straight away
+ * with {@link CircuitOpen}; once the open duration has passed, a single trial call is let through
+ * (half-open), and its outcome closes or re-opens the circuit. A failed call is one that ends in an
+ * exception, such as a connection error, or in a bad payload or unknown failure, which is how a remote provider
+ * reports error responses of its backend (e.g. MAA 5xx or 429); an attestation the provider rejects for its
+ * enclave or certificate is a result, not a failure. A call that has not answered within the call timeout is
+ * counted as failed at that point, so a hung backend still opens the circuit and cannot hold it half-open;
+ * its late answer is still passed on, but not counted again.
+ * <p>
+ * With a hedge percentile set, a second identical call is sent when the first has taken longer than that
+ * percentile of recent successful calls, and whichever answers first is used, unless it failed while the
+ * other is still outstanding. A hedge takes its own slot of the protocol's bulkhead, and is not sent while the
+ * bulkhead has none free, so hedging never takes the backend past the protocol's concurrency limit.
+ */
+public class CircuitBreakingAttestationProvider implements ISwappableAllowlistProvider {
+    private static final int LATENCY_SAMPLES = 100;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final Vertx vertx;
+    private final String protocol;
+    private final IAttestationProvider delegate;
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private final long callTimeoutMs;
+    private final double hedgePercentile;
+    private final AttestationBulkhead hedgeBulkhead;
+    private final Clock clock;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private final Counter openedCounter;
+    private final Counter halfOpenedCounter;
+    private final Counter hedgedCounter;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long latencyCount;
+
+    public CircuitBreakingAttestationProvider(Vertx vertx, String protocol, IAttestationProvider delegate, int failureThreshold, long openDurationMs,
+                                              long callTimeoutMs, double hedgePercentile, AttestationBulkhead hedgeBulkhead) {
+        this(vertx, protocol, delegate, failureThreshold, openDurationMs, callTimeoutMs, hedgePercentile, hedgeBulkhead, Clock.systemUTC());
+    }
+
+    public CircuitBreakingAttestationProvider(Vertx vertx, String protocol, IAttestationProvider delegate, int failureThreshold, long openDurationMs,
+                                              long callTimeoutMs, double hedgePercentile, AttestationBulkhead hedgeBulkhead, Clock clock) {
+        this.vertx = vertx;
+        this.protocol = protocol;
+        this.delegate = delegate;
+        this.failureThreshold = failureThreshold;
+        this.openDurationMs = openDurationMs;
+        this.callTimeoutMs = callTimeoutMs;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeBulkhead = hedgeBulkhead;
+        this.clock = clock;
+        Gauge.builder("uid2.core.attestation.circuit_state", this, provider -> provider.getState().ordinal())
+                .description("gauge for the protocol's circuit state: 0 closed, 1 open, 2 half-open")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+        this.openedCounter = Counter.builder("uid2.core.attestation.circuit_opened")
+                .description("counter for the protocol's circuit opening")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+        this.halfOpenedCounter = Counter.builder("uid2.core.attestation.circuit_half_opened")
+                .description("counter for trial calls let through the protocol's open circuit")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+        this.hedgedCounter = Counter.builder("uid2.core.attestation.hedged")
+                .description("counter for hedged attestation calls sent to the protocol's provider")
+                .tag("protocol", protocol)
+                .register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public void attest(byte[] attestationRequest, byte[] publicKey, Handler<AsyncResult<AttestationResult>> handler) {
+        final boolean trial;
+        synchronized (this) {
+            if (state == State.OPEN && clock.millis() - openedAt >= openDurationMs) {
+                state = State.HALF_OPEN;
+                halfOpenedCounter.increment();
+                trial = true;
+            } else if (state != State.CLOSED) {
+                handler.handle(Future.failedFuture(new CircuitOpen(protocol)));
+                return;
+            } else {
+                trial = false;
+            }
+        }
+
+        final long startNanos = System.nanoTime();
+        final AtomicBoolean completed = new AtomicBoolean(false);
+        final AtomicBoolean recorded = new AtomicBoolean(false);
+        final AtomicInteger outstanding = new AtomicInteger(1);
+        final long deadlineTimerId = callTimeoutMs > 0 ? vertx.setTimer(callTimeoutMs, id -> {
+            if (recorded.compareAndSet(false, true)) {
+                record(false, callTimeoutMs);
+            }
+        }) : -1;
+        final Handler<AsyncResult<AttestationResult>> first = ar -> {
+            // a failed call still waits for its hedge, if one is outstanding
+            final boolean failed = isFailure(ar);
+            if (outstanding.decrementAndGet() > 0 && failed) {
+                return;
+            }
+            if (completed.compareAndSet(false, true)) {
+                if (deadlineTimerId != -1) {
+                    vertx.cancelTimer(deadlineTimerId);
+                }
+                if (recorded.compareAndSet(false, true)) {
+                    record(!failed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                }
+                handler.handle(ar);
+            }
+        };
+
+        // timers set here run on the caller's context, so the hedge is sent from the same context as the first call
+        final long hedgeDelayMs = trial || hedgeBulkhead == null ? -1 : getHedgeDelayMs();
+        if (hedgeDelayMs >= 0) {
+            vertx.setTimer(Math.max(1, hedgeDelayMs), id -> {
+                if (completed.get()) {
+                    return;
+                }
+                hedgeBulkhead.tryExecute(hedge -> {
+                    if (outstanding.incrementAndGet() > 1) {
+                        hedgedCounter.increment();
+                        call(attestationRequest, publicKey, hedge);
+                    } else {
+                        // the first call answered in the meantime, so give the slot back without calling the backend
+                        hedge.handle(Future.failedFuture("hedge not needed"));
+                    }
+                }, first);
+            });
+        }
+        call(attestationRequest, publicKey, first);
+    }
+
+    @Override
+    public void registerEnclave(String encodedIdentifier) throws AttestationException {
+        delegate.registerEnclave(encodedIdentifier);
+    }
+
+    @Override
+    public void unregisterEnclave(String encodedIdentifier) throws AttestationException {
+        delegate.unregisterEnclave(encodedIdentifier);
+    }
+
+    @Override
+    public void updateEnclaveAllowlist(Collection<String> added, Collection<String> removed) {
+        SwappingAttestationProvider.update(delegate, added, removed);
+    }
+
+    @Override
+    public Collection<String> getEnclaveAllowlist() {
+        return delegate.getEnclaveAllowlist();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void call(byte[] attestationRequest, byte[] publicKey, Handler<AsyncResult<AttestationResult>> handler) {
+        try {
+            delegate.attest(attestationRequest, publicKey, handler);
+        } catch (RuntimeException e) {
+            handler.handle(Future.failedFuture(e));
+        }
+    }
+
+    private static boolean isFailure(AsyncResult<AttestationResult> ar) {
+        if (ar.failed()) {
+            return true;
+        }
+
+        final AttestationFailure failure = ar.result().getFailure();
+        return failure == AttestationFailure.BAD_PAYLOAD || failure == AttestationFailure.UNKNOWN;
+    }
+
+    private synchronized void record(boolean succeeded, long latencyMs) {
+        if (succeeded) {
+            latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = latencyMs;
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+            return;
+        }
+
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = clock.millis();
+            openedCounter.increment();
+        }
+    }
+
+    private synchronized long getHedgeDelayMs() {
+        if (hedgePercentile <= 0 || latencyCount < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+
+        final long[] samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        Arrays.sort(samples);
+        final int index = (int) Math.ceil(hedgePercentile * samples.length) - 1;
+        return samples[Math.max(0, Math.min(samples.length - 1, index))];
+    }
+
+    public static class CircuitOpen extends Exception {
+        public CircuitOpen(String protocol) {
+            super(protocol + " attestation circuit is open");
+        }
+    }
+}
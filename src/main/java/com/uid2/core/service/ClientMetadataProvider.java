@@ -1,52 +1,45 @@
 package com.uid2.core.service;
 
+import com.uid2.core.model.MetadataDocument;
 import com.uid2.core.model.SecretStore;
 import com.uid2.core.util.OperatorInfo;
 import com.uid2.shared.auth.OperatorType;
 import com.uid2.shared.cloud.ICloudStorage;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonObject;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import static com.uid2.core.util.MetadataHelper.getMetadataPathName;
 
+import java.util.concurrent.CompletableFuture;
+
 public class ClientMetadataProvider implements IClientMetadataProvider {
 
     public static final String ClientsMetadataPathName = "clients_metadata_path";
+    private static final MetadataLocationRewriter LOCATION_REWRITER = new MetadataLocationRewriter("client_keys");
 
     private final ICloudStorage metadataStreamProvider;
-    private final ICloudStorage downloadUrlGenerator;
+    private final MetadataCache metadataCache;
+    private final MetadataTemplates templates;
 
     @Override
-    public String getMetadata(OperatorInfo info) throws Exception {
+    public CompletableFuture<MetadataDocument> getMetadata(OperatorInfo info) throws Exception {
         String pathname = getMetadataPathName(info.getOperatorType(), info.getSiteId(), SecretStore.Global.get(ClientsMetadataPathName));
-        String original = readToEndAsString(metadataStreamProvider.download(pathname));
-        JsonObject main = (JsonObject) Json.decodeValue(original);
-        JsonObject obj = main.getJsonObject("client_keys");
-        String location = obj.getString("location");
-        obj.put("location", downloadUrlGenerator.preSignUrl(location).toString());
-        return main.encode();
+        return metadataCache.get(pathname, () -> loadMetadata(pathname));
+    }
+
+    private MetadataDocument loadMetadata(String pathname) throws Exception {
+        return templates.render(pathname, metadataStreamProvider.download(pathname), LOCATION_REWRITER);
     }
 
     public ClientMetadataProvider(ICloudStorage cloudStorage) {
-        this.metadataStreamProvider = this.downloadUrlGenerator = cloudStorage;
+        this(cloudStorage, cloudStorage);
     }
 
     public ClientMetadataProvider(ICloudStorage fileStreamProvider, ICloudStorage downloadUrlGenerator) {
-        this.metadataStreamProvider = fileStreamProvider;
-        this.downloadUrlGenerator = downloadUrlGenerator;
+        this(fileStreamProvider, downloadUrlGenerator, MetadataCache.disabled());
     }
 
-    private static String readToEndAsString(InputStream stream) throws IOException {
-        final InputStreamReader reader = new InputStreamReader(stream);
-        final char[] buff = new char[1024];
-        final StringBuilder sb = new StringBuilder();
-        for (int count; (count = reader.read(buff, 0, buff.length)) > 0;) {
-            sb.append(buff, 0, count);
-        }
-        return sb.toString();
+    public ClientMetadataProvider(ICloudStorage fileStreamProvider, ICloudStorage downloadUrlGenerator, MetadataCache metadataCache) {
+        this.metadataStreamProvider = fileStreamProvider;
+        this.metadataCache = metadataCache;
+        this.templates = new MetadataTemplates(downloadUrlGenerator);
     }
 }
@@ -1,8 +1,11 @@
 package com.uid2.core.service;
 
+import com.uid2.core.model.MetadataDocument;
 import com.uid2.core.util.OperatorInfo;
 import com.uid2.shared.auth.OperatorType;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface IKeyMetadataProvider {
-    String getMetadata(OperatorInfo info) throws Exception;
+    CompletableFuture<MetadataDocument> getMetadata(OperatorInfo info) throws Exception;
 }
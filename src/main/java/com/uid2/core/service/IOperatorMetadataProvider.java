@@ -1,5 +1,9 @@
 package com.uid2.core.service;
 
+import com.uid2.core.model.MetadataDocument;
+
+import java.util.concurrent.CompletableFuture;
+
 public interface IOperatorMetadataProvider {
-    String getMetadata() throws Exception;
+    CompletableFuture<MetadataDocument> getMetadata() throws Exception;
 }
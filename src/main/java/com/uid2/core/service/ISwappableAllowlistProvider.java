@@ -0,0 +1,13 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.secure.IAttestationProvider;
+
+import java.util.Collection;
+
+public interface ISwappableAllowlistProvider extends IAttestationProvider {
+    /**
+     * Applies a batch of registrations and unregistrations at once; attestations see either the allowlist
+     * from before the batch or the one after it. Identifiers that fail to register are skipped.
+     */
+    void updateEnclaveAllowlist(Collection<String> added, Collection<String> removed);
+}
@@ -0,0 +1,228 @@
+package com.uid2.core.service;
+
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.shared.health.HealthComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+
+/**
+ * Caches metadata documents by their resolved metadata path (global or site specific), so that
+ * operators polling the same document share one storage read per TTL.
+ * Entries expire after the TTL and the least recently used entry is evicted once the cache is full.
+ * Concurrent loads of the same path are coalesced into a single storage read; callers that arrive
+ * while a load is running get its pending result and never wait on it.
+ * <p>
+ * When a max staleness longer than the TTL is configured, an expired entry is still served while it is
+ * refreshed in the background, and the last good document is served, marked stale, when loading fails.
+ * Only once an entry is older than the max staleness do failures reach the caller; the health component, if one
+ * is given, is marked unhealthy once every path is.
+ * <p>
+ * A compressor, if one is given, is applied to each document as it is loaded, so response bodies are
+ * compressed once per loaded document rather than once per response.
+ */
+public class MetadataCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataCache.class);
+
+    private final long ttlMs;
+    private final long maxStalenessMs;
+    private final int maxEntries;
+    private final Executor refreshExecutor;
+    private final UnaryOperator<MetadataDocument> compressor;
+    private final HealthComponent healthComponent;
+    private final Clock clock;
+    private final Map<String, Entry> entries;
+    private final Map<String, Callable<MetadataDocument>> loaders = new ConcurrentHashMap<>();
+    private final SingleFlight<String, MetadataDocument> loads = new SingleFlight<>("metadata");
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final Set<String> expired = ConcurrentHashMap.newKeySet();
+
+    public MetadataCache(long ttlMs, int maxEntries) {
+        this(ttlMs, maxEntries, Clock.systemUTC());
+    }
+
+    public MetadataCache(long ttlMs, int maxEntries, Clock clock) {
+        this(ttlMs, ttlMs, maxEntries, null, null, clock);
+    }
+
+    public MetadataCache(long ttlMs, long maxStalenessMs, int maxEntries, UnaryOperator<MetadataDocument> compressor,
+                         HealthComponent healthComponent) {
+        this(ttlMs, maxStalenessMs, maxEntries, Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "metadata-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }), compressor, healthComponent, Clock.systemUTC());
+    }
+
+    public MetadataCache(long ttlMs, long maxStalenessMs, int maxEntries, Executor refreshExecutor, HealthComponent healthComponent, Clock clock) {
+        this(ttlMs, maxStalenessMs, maxEntries, refreshExecutor, null, healthComponent, clock);
+    }
+
+    public MetadataCache(long ttlMs, long maxStalenessMs, int maxEntries, Executor refreshExecutor, UnaryOperator<MetadataDocument> compressor,
+                         HealthComponent healthComponent, Clock clock) {
+        this.ttlMs = ttlMs;
+        this.maxStalenessMs = Math.max(ttlMs, maxStalenessMs);
+        this.maxEntries = maxEntries;
+        this.refreshExecutor = refreshExecutor;
+        this.compressor = compressor;
+        this.healthComponent = healthComponent;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MetadataCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static MetadataCache disabled() {
+        return new MetadataCache(0, 0);
+    }
+
+    /**
+     * Returns the cached document for the path, or loads it with the loader on the calling thread. While
+     * another caller is loading the same path, the pending result of that load is returned instead.
+     */
+    public CompletableFuture<MetadataDocument> get(String path, Callable<MetadataDocument> loader) {
+        loaders.putIfAbsent(path, loader);
+        final long now = clock.millis();
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(path);
+        }
+        if (entry != null) {
+            final long age = now - entry.loadedAt;
+            if (age < ttlMs) {
+                return CompletableFuture.completedFuture(entry.document);
+            }
+            if (refreshExecutor != null && age < maxStalenessMs) {
+                refreshInBackground(path, loader);
+                return CompletableFuture.completedFuture(entry.refreshFailed ? entry.document.asStale() : entry.document);
+            }
+        }
+
+        final CompletableFuture<MetadataDocument> result = new CompletableFuture<>();
+        load(path, loader).whenComplete((document, error) -> {
+            if (error == null) {
+                result.complete(document);
+                return;
+            }
+
+            final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (entry != null && now - entry.loadedAt < maxStalenessMs) {
+                LOGGER.warn("serving stale metadata for " + path + ": " + cause.getMessage());
+                entry.refreshFailed = true;
+                result.complete(entry.document.asStale());
+                return;
+            }
+            if (entry != null) {
+                markExpired(path);
+            }
+            result.completeExceptionally(cause);
+        });
+        return result;
+    }
+
+    /**
+     * Reloads a path with the loader it was first requested with, regardless of its age and whether it
+     * is still cached. Returns null if the path has never been requested.
+     */
+    public CompletableFuture<MetadataDocument> reload(String path) {
+        final Callable<MetadataDocument> loader = loaders.get(path);
+        if (loader == null) {
+            return null;
+        }
+
+        return load(path, loader);
+    }
+
+    public long getCoalescedCount() {
+        return loads.getCoalescedCount();
+    }
+
+    /**
+     * Returns the number of paths that failed to load and are older than the max staleness.
+     */
+    public int getExpiredCount() {
+        return expired.size();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private CompletableFuture<MetadataDocument> load(String path, Callable<MetadataDocument> loader) {
+        return loads.execute(path, () -> {
+            final MetadataDocument loaded = loader.call();
+            final MetadataDocument document = compressor != null ? compressor.apply(loaded) : loaded;
+            if (ttlMs > 0 && maxEntries > 0) {
+                synchronized (entries) {
+                    entries.put(path, new Entry(document, clock.millis()));
+                }
+            }
+            markFresh(path);
+            return document;
+        });
+    }
+
+    private void refreshInBackground(String path, Callable<MetadataDocument> loader) {
+        if (!refreshing.add(path)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> load(path, loader).whenComplete((document, error) -> {
+                if (error != null) {
+                    LOGGER.warn("background refresh of " + path + " failed: " + error.getMessage());
+                    final Entry entry;
+                    synchronized (entries) {
+                        entry = entries.get(path);
+                    }
+                    if (entry != null) {
+                        entry.refreshFailed = true;
+                    }
+                }
+                refreshing.remove(path);
+            }));
+        } catch (Exception e) {
+            refreshing.remove(path);
+            LOGGER.warn("unable to schedule refresh of " + path + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void markExpired(String path) {
+        if (expired.add(path) && healthComponent != null && expired.containsAll(loaders.keySet())) {
+            healthComponent.setHealthStatus(false, "all metadata is older than the max staleness");
+        }
+    }
+
+    private synchronized void markFresh(String path) {
+        if (expired.remove(path) && healthComponent != null) {
+            healthComponent.setHealthStatus(true);
+        }
+    }
+
+    private static class Entry {
+        private final MetadataDocument document;
+        private final long loadedAt;
+        private volatile boolean refreshFailed;
+
+        Entry(MetadataDocument document, long loadedAt) {
+            this.document = document;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
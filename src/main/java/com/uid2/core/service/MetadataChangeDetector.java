@@ -0,0 +1,131 @@
+package com.uid2.core.service;
+
+import com.uid2.core.model.MetadataDocument;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Detects changes to metadata documents that clients are waiting on.
+ * Each poll reloads every watched metadata path once through the metadata cache and notifies all
+ * watchers whose known version differs, so one storage read fans out to any number of waiting clients.
+ */
+public class MetadataChangeDetector {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataChangeDetector.class);
+
+    public interface Listener {
+        void onChange(MetadataDocument document);
+    }
+
+    private final MetadataCache metadataCache;
+    private final Map<String, Set<Watch>> watches = new ConcurrentHashMap<>();
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+
+    public MetadataChangeDetector(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+        Gauge.builder("uid2.core.metadata_change.watches", this, MetadataChangeDetector::getWatchCount)
+                .description("gauge for long-poll and stream clients waiting on a metadata change")
+                .register(Metrics.globalRegistry);
+    }
+
+    public Watch watch(String path, String knownVersion, Listener listener) {
+        final Watch watch = new Watch(path, knownVersion, listener);
+        watches.compute(path, (k, v) -> {
+            final Set<Watch> set = v != null ? v : ConcurrentHashMap.newKeySet();
+            set.add(watch);
+            return set;
+        });
+        return watch;
+    }
+
+    public boolean hasWatches() {
+        return !watches.isEmpty();
+    }
+
+    private int getWatchCount() {
+        return watches.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public void poll() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+
+        final List<CompletableFuture<?>> reloads = new ArrayList<>();
+        try {
+            for (String path : watches.keySet()) {
+                final CompletableFuture<MetadataDocument> reload;
+                try {
+                    reload = metadataCache.reload(path);
+                } catch (Exception e) {
+                    LOGGER.warn("failed to poll metadata " + path + ": " + e.getMessage());
+                    continue;
+                }
+                if (reload == null) {
+                    continue;
+                }
+
+                reloads.add(reload.whenComplete((document, error) -> {
+                    if (error != null) {
+                        LOGGER.warn("failed to poll metadata " + path + ": " + error.getMessage());
+                        return;
+                    }
+
+                    final Set<Watch> pathWatches = watches.get(path);
+                    if (pathWatches != null) {
+                        for (Watch watch : pathWatches) {
+                            watch.update(document);
+                        }
+                    }
+                }));
+            }
+        } finally {
+            CompletableFuture.allOf(reloads.toArray(new CompletableFuture[0])).whenComplete((v, e) -> polling.set(false));
+        }
+    }
+
+    private void remove(Watch watch) {
+        watches.computeIfPresent(watch.path, (k, v) -> {
+            v.remove(watch);
+            return v.isEmpty() ? null : v;
+        });
+    }
+
+    public class Watch {
+        private final String path;
+        private final Listener listener;
+        private volatile String knownVersion;
+
+        private Watch(String path, String knownVersion, Listener listener) {
+            this.path = path;
+            this.knownVersion = knownVersion;
+            this.listener = listener;
+        }
+
+        private void update(MetadataDocument document) {
+            if (document.getVersion().equals(knownVersion)) {
+                return;
+            }
+
+            knownVersion = document.getVersion();
+            try {
+                listener.onChange(document);
+            } catch (Exception e) {
+                LOGGER.warn("metadata change listener failed: " + e.getMessage(), e);
+            }
+        }
+
+        public void cancel() {
+            remove(this);
+        }
+    }
+}
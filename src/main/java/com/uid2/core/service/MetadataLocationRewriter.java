@@ -0,0 +1,99 @@
+package com.uid2.core.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.uid2.core.model.MetadataTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a metadata file into a {@link MetadataTemplate} in a single pass of Jackson's streaming parser,
+ * without decoding the file into a JsonObject. The rewritten locations are the location fields of the
+ * top-level field named by the holder, which is either an object (e.g. keys) or an array of objects
+ * (e.g. salts). A file without the holder field, or with a holder entry that has no location, is rejected.
+ */
+public class MetadataLocationRewriter {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final String holderField;
+
+    public MetadataLocationRewriter(String holderField) {
+        this.holderField = holderField;
+    }
+
+    public MetadataTemplate rewrite(byte[] content, String version) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        final List<byte[]> segments = new ArrayList<>();
+        final List<String> locations = new ArrayList<>();
+        boolean holderFound = false;
+        boolean holderValueExpected = false;
+        int holderObjects = 0;
+
+        try (JsonParser parser = FACTORY.createParser(content);
+             JsonGenerator generator = FACTORY.createGenerator(out)) {
+            for (JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                generator.copyCurrentEvent(parser);
+                if (holderValueExpected) {
+                    if (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY) {
+                        throw new IOException(holderField + " is neither an object nor an array");
+                    }
+                    holderValueExpected = false;
+                }
+                if (token == JsonToken.FIELD_NAME && holderField.equals(parser.getCurrentName()) && isRootObject(parser.getParsingContext())) {
+                    holderFound = true;
+                    holderValueExpected = true;
+                } else if (token == JsonToken.START_OBJECT && isHolder(parser.getParsingContext())) {
+                    holderObjects++;
+                } else if (token == JsonToken.FIELD_NAME && "location".equals(parser.getCurrentName()) && isHolder(parser.getParsingContext())) {
+                    if (parser.nextToken() != JsonToken.VALUE_STRING) {
+                        throw new IOException("location of " + holderField + " is not a string");
+                    }
+                    locations.add(parser.getText());
+
+                    // an empty raw value lets the generator track that the field has a value, so it
+                    // writes the right separator before the next token
+                    generator.writeRawValue("");
+                    generator.flush();
+                    segments.add(out.toByteArray());
+                    out.reset();
+                }
+            }
+        }
+
+        if (!holderFound) {
+            throw new IOException("metadata has no " + holderField);
+        }
+        if (locations.size() != holderObjects) {
+            throw new IOException("an entry of " + holderField + " has no location");
+        }
+
+        segments.add(out.toByteArray());
+        return new MetadataTemplate(version, segments, locations);
+    }
+
+    private static boolean isRootObject(JsonStreamContext context) {
+        return context.inObject() && context.getParent() != null && context.getParent().inRoot();
+    }
+
+    private boolean isHolder(JsonStreamContext context) {
+        final JsonStreamContext parent = context.getParent();
+        if (parent == null) {
+            return false;
+        }
+        if (parent.inObject()) {
+            return parent.getParent() != null && parent.getParent().inRoot() && holderField.equals(parent.getCurrentName());
+        }
+        if (parent.inArray()) {
+            final JsonStreamContext root = parent.getParent();
+            return root != null && root.inObject() && root.getParent() != null && root.getParent().inRoot()
+                    && holderField.equals(root.getCurrentName());
+        }
+        return false;
+    }
+}
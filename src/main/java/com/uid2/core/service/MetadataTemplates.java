@@ -0,0 +1,97 @@
+package com.uid2.core.service;
+
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.core.model.MetadataTemplate;
+import com.uid2.shared.cloud.CloudStorageException;
+import com.uid2.shared.cloud.ICloudStorage;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the template of the latest version of each metadata path, so a reload of an unchanged
+ * metadata file only has to pre-sign its locations and splice them into the template.
+ * Given a signing executor, documents with many locations are pre-signed in parallel chunks,
+ * one of which runs on the calling thread.
+ */
+public class MetadataTemplates {
+    private final ICloudStorage downloadUrlGenerator;
+    private final Executor signingExecutor;
+    private final int signingParallelism;
+    private final Map<String, MetadataTemplate> templates = new ConcurrentHashMap<>();
+
+    public MetadataTemplates(ICloudStorage downloadUrlGenerator) {
+        this(downloadUrlGenerator, null, 1);
+    }
+
+    public MetadataTemplates(ICloudStorage downloadUrlGenerator, Executor signingExecutor, int signingParallelism) {
+        this.downloadUrlGenerator = downloadUrlGenerator;
+        this.signingExecutor = signingExecutor;
+        this.signingParallelism = signingExecutor == null ? 1 : Math.max(1, signingParallelism);
+    }
+
+    /**
+     * Renders the metadata file read from the given stream, rewriting it into a new template only when
+     * its version has changed.
+     */
+    public MetadataDocument render(String pathname, InputStream stream, MetadataLocationRewriter rewriter) throws Exception {
+        final byte[] content;
+        try (InputStream in = stream) {
+            content = in.readAllBytes();
+        }
+
+        final String version = MetadataDocument.versionOf(content);
+        MetadataTemplate template = templates.get(pathname);
+        if (template == null || !template.getVersion().equals(version)) {
+            template = rewriter.rewrite(content, version);
+            templates.put(pathname, template);
+        }
+
+        return template.render(pathname, preSign(template.getLocations()));
+    }
+
+    private List<String> preSign(List<String> locations) throws Exception {
+        final int chunks = Math.min(signingParallelism, locations.size());
+        final String[] urls = new String[locations.size()];
+        if (chunks <= 1) {
+            preSign(locations, urls, 0, urls.length);
+            return Arrays.asList(urls);
+        }
+
+        final int chunkSize = (urls.length + chunks - 1) / chunks;
+        final List<CompletableFuture<Void>> pending = new ArrayList<>(chunks - 1);
+        for (int start = chunkSize; start < urls.length; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, urls.length);
+            pending.add(CompletableFuture.runAsync(() -> {
+                try {
+                    preSign(locations, urls, from, to);
+                } catch (CloudStorageException e) {
+                    throw new CompletionException(e);
+                }
+            }, signingExecutor));
+        }
+        preSign(locations, urls, 0, Math.min(chunkSize, urls.length));
+
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return Arrays.asList(urls);
+    }
+
+    private void preSign(List<String> locations, String[] urls, int from, int to) throws CloudStorageException {
+        for (int i = from; i < to; i++) {
+            urls[i] = downloadUrlGenerator.preSignUrl(locations.get(i)).toString();
+        }
+    }
+}
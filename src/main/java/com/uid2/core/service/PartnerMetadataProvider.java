@@ -1,47 +1,41 @@
 package com.uid2.core.service;
 
+import com.uid2.core.model.MetadataDocument;
 import com.uid2.core.model.SecretStore;
 import com.uid2.shared.cloud.ICloudStorage;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonObject;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
 
 public class PartnerMetadataProvider implements IPartnerMetadataProvider {
 
     public static final String PartnersMetadataPathName = "partners_metadata_path";
+    private static final MetadataLocationRewriter LOCATION_REWRITER = new MetadataLocationRewriter("partners");
 
     private final ICloudStorage metadataStreamProvider;
-    private final ICloudStorage downloadUrlGenerator;
+    private final MetadataCache metadataCache;
+    private final MetadataTemplates templates;
 
     @Override
-    public String getMetadata() throws Exception {
-        String original = readToEndAsString(metadataStreamProvider.download(SecretStore.Global.get(PartnersMetadataPathName)));
-        JsonObject main = (JsonObject) Json.decodeValue(original);
-        JsonObject obj = main.getJsonObject("partners");
-        String location = obj.getString("location");
-        obj.put("location", downloadUrlGenerator.preSignUrl(location).toString());
-        return main.encode();
+    public CompletableFuture<MetadataDocument> getMetadata() throws Exception {
+        String pathname = SecretStore.Global.get(PartnersMetadataPathName);
+        return metadataCache.get(pathname, () -> loadMetadata(pathname));
+    }
+
+    private MetadataDocument loadMetadata(String pathname) throws Exception {
+        return templates.render(pathname, metadataStreamProvider.download(pathname), LOCATION_REWRITER);
     }
 
     public PartnerMetadataProvider(ICloudStorage cloudStorage) {
-        this.metadataStreamProvider = this.downloadUrlGenerator = cloudStorage;
+        this(cloudStorage, cloudStorage);
     }
 
     public PartnerMetadataProvider(ICloudStorage fileStreamProvider, ICloudStorage downloadUrlGenerator) {
-        this.metadataStreamProvider = fileStreamProvider;
-        this.downloadUrlGenerator = downloadUrlGenerator;
+        this(fileStreamProvider, downloadUrlGenerator, MetadataCache.disabled());
     }
 
-    private static String readToEndAsString(InputStream stream) throws IOException {
-        final InputStreamReader reader = new InputStreamReader(stream);
-        final char[] buff = new char[1024];
-        final StringBuilder sb = new StringBuilder();
-        for (int count; (count = reader.read(buff, 0, buff.length)) > 0;) {
-            sb.append(buff, 0, count);
-        }
-        return sb.toString();
+    public PartnerMetadataProvider(ICloudStorage fileStreamProvider, ICloudStorage downloadUrlGenerator, MetadataCache metadataCache) {
+        this.metadataStreamProvider = fileStreamProvider;
+        this.metadataCache = metadataCache;
+        this.templates = new MetadataTemplates(downloadUrlGenerator);
     }
 }
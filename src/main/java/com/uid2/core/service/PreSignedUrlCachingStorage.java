@@ -0,0 +1,168 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.cloud.CloudStorageException;
+import com.uid2.shared.cloud.ICloudStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Clock;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Storage decorator that caches pre-signed URLs by object location.
+ * A cached URL is handed out while more than half of its validity is left, and is re-signed in the
+ * background once it gets close to that point, so callers rarely pay for signing on the request path.
+ */
+public class PreSignedUrlCachingStorage implements ICloudStorage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreSignedUrlCachingStorage.class);
+
+    private static final double REUSE_FRACTION = 0.5;
+    private static final double REFRESH_FRACTION = 0.4;
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final ICloudStorage storage;
+    private final Executor refreshExecutor;
+    private final Clock clock;
+    private final int maxEntries;
+    private final Map<String, SignedUrl> urls = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private volatile long expiryMs;
+
+    public PreSignedUrlCachingStorage(ICloudStorage storage, long expiryInSeconds) {
+        this(storage, expiryInSeconds, DEFAULT_MAX_ENTRIES, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "pre-signed-url-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }), Clock.systemUTC());
+    }
+
+    public PreSignedUrlCachingStorage(ICloudStorage storage, long expiryInSeconds, int maxEntries, Executor refreshExecutor, Clock clock) {
+        this.storage = storage;
+        this.expiryMs = expiryInSeconds * 1000;
+        this.maxEntries = maxEntries;
+        this.refreshExecutor = refreshExecutor;
+        this.clock = clock;
+    }
+
+    @Override
+    public URL preSignUrl(String location) throws CloudStorageException {
+        final long now = clock.millis();
+        final SignedUrl cached = urls.get(location);
+        if (cached != null) {
+            final long age = now - cached.signedAt;
+            if (age < expiryMs * REUSE_FRACTION) {
+                if (age >= expiryMs * REFRESH_FRACTION) {
+                    refreshInBackground(location);
+                }
+                return cached.url;
+            }
+        }
+
+        return sign(location, now);
+    }
+
+    private URL sign(String location, long now) throws CloudStorageException {
+        final URL url = storage.preSignUrl(location);
+        if (expiryMs > 0) {
+            if (urls.size() >= maxEntries) {
+                urls.values().removeIf(u -> now - u.signedAt >= expiryMs * REUSE_FRACTION);
+            }
+            if (urls.size() < maxEntries) {
+                urls.put(location, new SignedUrl(url, now));
+            }
+        }
+        return url;
+    }
+
+    private void refreshInBackground(String location) {
+        if (!refreshing.add(location)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    sign(location, clock.millis());
+                } catch (Exception e) {
+                    LOGGER.warn("failed to refresh pre-signed url for " + storage.mask(location) + ": " + e.getMessage());
+                } finally {
+                    refreshing.remove(location);
+                }
+            });
+        } catch (Exception e) {
+            refreshing.remove(location);
+            LOGGER.warn("failed to schedule pre-signed url refresh: " + e.getMessage());
+        }
+    }
+
+    public int size() {
+        return urls.size();
+    }
+
+    /**
+     * Returns the shortest validity a URL handed out by this storage can have left.
+     */
+    public long getMinRemainingValidityMs() {
+        return (long) (expiryMs * (1 - REUSE_FRACTION));
+    }
+
+    @Override
+    public void setPreSignedUrlExpiry(long expiry) {
+        storage.setPreSignedUrlExpiry(expiry);
+        this.expiryMs = expiry * 1000;
+        this.urls.clear();
+    }
+
+    @Override
+    public InputStream download(String cloudPath) throws CloudStorageException {
+        return storage.download(cloudPath);
+    }
+
+    @Override
+    public void upload(String localPath, String cloudPath) throws CloudStorageException {
+        storage.upload(localPath, cloudPath);
+    }
+
+    @Override
+    public void upload(InputStream input, String cloudPath) throws CloudStorageException {
+        storage.upload(input, cloudPath);
+    }
+
+    @Override
+    public void delete(String cloudPath) throws CloudStorageException {
+        storage.delete(cloudPath);
+    }
+
+    @Override
+    public void delete(Collection<String> cloudPaths) throws CloudStorageException {
+        storage.delete(cloudPaths);
+    }
+
+    @Override
+    public List<String> list(String prefix) throws CloudStorageException {
+        return storage.list(prefix);
+    }
+
+    @Override
+    public String mask(String cloudPath) {
+        return storage.mask(cloudPath);
+    }
+
+    private static class SignedUrl {
+        private final URL url;
+        private final long signedAt;
+
+        SignedUrl(URL url, long signedAt) {
+            this.url = url;
+            this.signedAt = signedAt;
+        }
+    }
+}
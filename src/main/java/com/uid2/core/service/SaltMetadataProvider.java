@@ -1,51 +1,47 @@
 package com.uid2.core.service;
 
+import com.uid2.core.model.MetadataDocument;
 import com.uid2.core.model.SecretStore;
 import com.uid2.shared.cloud.ICloudStorage;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class SaltMetadataProvider implements ISaltMetadataProvider {
 
     public static final String SaltsMetadataPathName = "salts_metadata_path";
+    private static final MetadataLocationRewriter LOCATION_REWRITER = new MetadataLocationRewriter("salts");
 
     private final ICloudStorage metadataStreamProvider;
-    private final ICloudStorage downloadUrlGenerator;
+    private final MetadataCache metadataCache;
+    private final MetadataTemplates templates;
 
     public SaltMetadataProvider(ICloudStorage cloudStorage) {
-        this.metadataStreamProvider = this.downloadUrlGenerator = cloudStorage;
+        this(cloudStorage, cloudStorage);
     }
 
     public SaltMetadataProvider(ICloudStorage fileStreamProvider, ICloudStorage downloadUrlGenerator) {
+        this(fileStreamProvider, downloadUrlGenerator, MetadataCache.disabled());
+    }
+
+    public SaltMetadataProvider(ICloudStorage fileStreamProvider, ICloudStorage downloadUrlGenerator, MetadataCache metadataCache) {
+        this(fileStreamProvider, downloadUrlGenerator, metadataCache, null, 1);
+    }
+
+    public SaltMetadataProvider(ICloudStorage fileStreamProvider, ICloudStorage downloadUrlGenerator, MetadataCache metadataCache,
+                                Executor signingExecutor, int signingParallelism) {
         this.metadataStreamProvider = fileStreamProvider;
-        this.downloadUrlGenerator = downloadUrlGenerator;
+        this.metadataCache = metadataCache;
+        this.templates = new MetadataTemplates(downloadUrlGenerator, signingExecutor, signingParallelism);
     }
 
     @Override
-    public String getMetadata() throws Exception {
-        String original = readToEndAsString(metadataStreamProvider.download(SecretStore.Global.get(SaltsMetadataPathName)));
-        JsonObject main = (JsonObject) Json.decodeValue(original);
-        JsonArray salts = main.getJsonArray("salts");
-        for(int i=0;i<salts.size();++i) {
-            JsonObject obj = salts.getJsonObject(i);
-            String location = obj.getString("location");
-            obj.put("location", downloadUrlGenerator.preSignUrl(location).toString());
-        }
-        return main.encode();
+    public CompletableFuture<MetadataDocument> getMetadata() throws Exception {
+        String pathname = SecretStore.Global.get(SaltsMetadataPathName);
+        return metadataCache.get(pathname, () -> loadMetadata(pathname));
     }
 
-    private static String readToEndAsString(InputStream stream) throws IOException {
-        final InputStreamReader reader = new InputStreamReader(stream);
-        final char[] buff = new char[1024];
-        final StringBuilder sb = new StringBuilder();
-        for (int count; (count = reader.read(buff, 0, buff.length)) > 0;) {
-            sb.append(buff, 0, count);
-        }
-        return sb.toString();
+    private MetadataDocument loadMetadata(String pathname) throws Exception {
+        return templates.render(pathname, metadataStreamProvider.download(pathname), LOCATION_REWRITER);
     }
 }
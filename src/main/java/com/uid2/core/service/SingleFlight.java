@@ -0,0 +1,59 @@
+package com.uid2.core.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicates concurrent loads of the same key: the first caller runs the task and every caller that
+ * arrives while it is still running gets the same pending future instead of starting its own.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final Counter coalescedCounter;
+
+    public SingleFlight(String name) {
+        this.coalescedCounter = Counter
+                .builder("uid2.core.single_flight.coalesced")
+                .description("counter for requests that shared an in-flight load instead of starting their own")
+                .tag("name", name)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Runs the task on the calling thread unless a load of the key is already running, in which case the
+     * pending result of that load is returned without waiting for it.
+     */
+    public CompletableFuture<V> execute(K key, Callable<V> task) {
+        final CompletableFuture<V> pending = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, pending);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            coalescedCounter.increment();
+            return existing;
+        }
+
+        try {
+            final V result = task.call();
+            inFlight.remove(key, pending);
+            pending.complete(result);
+        } catch (Throwable t) {
+            inFlight.remove(key, pending);
+            pending.completeExceptionally(t);
+        }
+        return pending;
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
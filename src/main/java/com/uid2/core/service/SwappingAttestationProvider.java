@@ -0,0 +1,141 @@
+package com.uid2.core.service;
+
+import com.uid2.shared.secure.AttestationException;
+import com.uid2.shared.secure.AttestationResult;
+import com.uid2.shared.secure.IAttestationProvider;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps an attestation provider's enclave allowlist immutable once attestations can see it. The shared
+ * providers hold their allowlists in plain sets that registration mutates while attestations read them;
+ * here every change instead builds a new provider from the factory, registers the complete new allowlist
+ * on it, and publishes it with a single volatile write. Attestations never take a lock and never observe
+ * a partly applied change.
+ */
+public class SwappingAttestationProvider implements ISwappableAllowlistProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SwappingAttestationProvider.class);
+
+    public interface Factory {
+        IAttestationProvider create() throws Exception;
+    }
+
+    private final String protocol;
+    private final Factory factory;
+    private volatile IAttestationProvider current;
+    private Set<String> identifiers = Collections.emptySet();
+
+    public SwappingAttestationProvider(String protocol, Factory factory) throws Exception {
+        this.protocol = protocol;
+        this.factory = factory;
+        this.current = factory.create();
+    }
+
+    /**
+     * Applies the changes to the provider's allowlist in one batch if it supports that, or one identifier
+     * at a time otherwise.
+     */
+    public static void update(IAttestationProvider provider, Collection<String> added, Collection<String> removed) {
+        if (provider instanceof ISwappableAllowlistProvider) {
+            ((ISwappableAllowlistProvider) provider).updateEnclaveAllowlist(added, removed);
+            return;
+        }
+
+        for (String identifier : added) {
+            try {
+                provider.registerEnclave(identifier);
+            } catch (Exception e) {
+                LOGGER.warn("exception while processing enclave profile: " + e.getMessage());
+            }
+        }
+        for (String identifier : removed) {
+            try {
+                provider.unregisterEnclave(identifier);
+            } catch (Exception e) {
+                LOGGER.warn("exception while processing enclave profile: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void attest(byte[] attestationRequest, byte[] publicKey, Handler<AsyncResult<AttestationResult>> handler) {
+        current.attest(attestationRequest, publicKey, handler);
+    }
+
+    @Override
+    public synchronized void registerEnclave(String encodedIdentifier) throws AttestationException {
+        final Set<String> next = new HashSet<>(identifiers);
+        next.add(encodedIdentifier);
+        final IAttestationProvider provider = create();
+        for (String identifier : identifiers) {
+            register(provider, identifier);
+        }
+        provider.registerEnclave(encodedIdentifier);
+        publish(provider, next);
+    }
+
+    @Override
+    public synchronized void unregisterEnclave(String encodedIdentifier) throws AttestationException {
+        final Set<String> next = new HashSet<>(identifiers);
+        if (!next.remove(encodedIdentifier)) {
+            return;
+        }
+        publish(build(next), next);
+    }
+
+    @Override
+    public synchronized void updateEnclaveAllowlist(Collection<String> added, Collection<String> removed) {
+        final Set<String> next = new HashSet<>(identifiers);
+        next.removeAll(removed);
+        next.addAll(added);
+        if (next.equals(identifiers)) {
+            return;
+        }
+        try {
+            publish(build(next), next);
+        } catch (AttestationException e) {
+            LOGGER.warn("exception while processing enclave profile: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Collection<String> getEnclaveAllowlist() {
+        return current.getEnclaveAllowlist();
+    }
+
+    private IAttestationProvider build(Set<String> next) throws AttestationException {
+        final IAttestationProvider provider = create();
+        next.removeIf(identifier -> !register(provider, identifier));
+        return provider;
+    }
+
+    private IAttestationProvider create() throws AttestationException {
+        try {
+            return factory.create();
+        } catch (Exception e) {
+            throw new AttestationException(e);
+        }
+    }
+
+    private boolean register(IAttestationProvider provider, String identifier) {
+        try {
+            provider.registerEnclave(identifier);
+            return true;
+        } catch (AttestationException e) {
+            LOGGER.warn("exception while processing enclave profile for " + protocol + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void publish(IAttestationProvider provider, Set<String> next) {
+        identifiers = Collections.unmodifiableSet(next);
+        current = provider;
+    }
+}
@@ -0,0 +1,87 @@
+package com.uid2.core.util;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The response content encodings the server produces itself, and their negotiation against a request's
+ * Accept-Encoding header.
+ */
+public final class ContentEncoding {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Returns the encoding to respond with, gzip in preference to deflate, or null when the client accepts neither.
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String candidate : acceptEncoding.split(",")) {
+            final int parameters = candidate.indexOf(';');
+            final String coding = (parameters < 0 ? candidate : candidate.substring(0, parameters)).trim();
+            if (parameters >= 0 && isRejected(candidate.substring(parameters + 1))) {
+                continue;
+            }
+            if (coding.equalsIgnoreCase(GZIP) || coding.equals("*")) {
+                gzip = true;
+            } else if (coding.equalsIgnoreCase(DEFLATE)) {
+                deflate = true;
+            }
+        }
+        return gzip ? GZIP : deflate ? DEFLATE : null;
+    }
+
+    public static Buffer encode(Buffer body, String encoding, int level) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length() / 4));
+        // gzip writes its own header and trailer around raw deflate data, while HTTP deflate is the zlib format
+        final Deflater deflater = new Deflater(level, GZIP.equals(encoding));
+        try (OutputStream encoder = GZIP.equals(encoding) ? new GzipOutputStream(out, deflater) : new DeflaterOutputStream(out, deflater)) {
+            encoder.write(body.getBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return Buffer.buffer(out.toByteArray());
+    }
+
+    private static boolean isRejected(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            final String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("q")) {
+                try {
+                    return Double.parseDouble(pair[1].trim()) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * GZIPOutputStream using the given deflater, so that the compression level can be chosen.
+     */
+    private static class GzipOutputStream extends GZIPOutputStream {
+        GzipOutputStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out);
+            def.end();
+            def = deflater;
+        }
+    }
+}
@@ -28,10 +28,18 @@ public class OperatorInfo {
     }
 
     public static OperatorInfo getOperatorInfo(RoutingContext rc) throws Exception {
-        IAuthorizable profile = (IAuthorizable)  rc.data().get(API_CLIENT_PROP);
+        OperatorKey operatorKey = getOperatorKey(rc);
+        return new OperatorInfo(operatorKey.getOperatorType(), operatorKey.getSiteId());
+    }
+
+    /**
+     * Returns the operator key that AuthMiddleware authenticated for this request. Handlers read the principal
+     * from here rather than resolving the auth token through the key provider again.
+     */
+    public static OperatorKey getOperatorKey(RoutingContext rc) throws Exception {
+        IAuthorizable profile = (IAuthorizable) rc.data().get(API_CLIENT_PROP);
         if (profile instanceof OperatorKey) {
-            OperatorKey operatorKey = (OperatorKey) profile;
-            return new OperatorInfo(operatorKey.getOperatorType(), operatorKey.getSiteId());
+            return (OperatorKey) profile;
         }
         throw new Exception("Cannot determine the operator type and site id from the profile");
     }
@@ -21,4 +21,8 @@ public enum AttestationFailureReason {
      * Attestation was attempted, but failed.
      */
     ATTESTATION_FAILURE,
+    /**
+     * Too many attestations of the protocol in progress, the attestation timed out, or the protocol's circuit is open.
+     */
+    ATTESTATION_UNAVAILABLE,
 }
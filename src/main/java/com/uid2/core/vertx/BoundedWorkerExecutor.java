@@ -0,0 +1,51 @@
+package com.uid2.core.vertx;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking tasks on a named Vert.x worker pool and rejects new tasks once the number of queued
+ * and running tasks reaches the queue limit, so a slow backend cannot grow the backlog without bound.
+ */
+public class BoundedWorkerExecutor {
+    private final String name;
+    private final WorkerExecutor executor;
+    private final int queueLimit;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public BoundedWorkerExecutor(Vertx vertx, String name, int poolSize, int queueLimit) {
+        this.name = name;
+        this.executor = vertx.createSharedWorkerExecutor(name, poolSize);
+        this.queueLimit = queueLimit;
+        Gauge.builder("uid2.core.worker.queue_depth", this, BoundedWorkerExecutor::getPending)
+                .description("gauge for tasks queued or running on the worker pool")
+                .tag("pool", name)
+                .register(Metrics.globalRegistry);
+    }
+
+    public <T> Future<T> execute(Callable<T> task) {
+        if (pending.incrementAndGet() > queueLimit) {
+            pending.decrementAndGet();
+            return Future.failedFuture(new RejectedExecutionException(name + " queue limit of " + queueLimit + " reached"));
+        }
+
+        return executor.<T>executeBlocking(promise -> {
+            try {
+                promise.complete(task.call());
+            } catch (Throwable t) {
+                promise.fail(t);
+            }
+        }, false).onComplete(ar -> pending.decrementAndGet());
+    }
+
+    private int getPending() {
+        return pending.get();
+    }
+}
@@ -0,0 +1,143 @@
+package com.uid2.core.vertx;
+
+import com.uid2.core.model.ConfigStore;
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.core.service.*;
+import com.uid2.shared.attest.IAttestationTokenService;
+import com.uid2.shared.auth.IAuthorizableProvider;
+import com.uid2.shared.auth.IEnclaveIdentifierProvider;
+import com.uid2.shared.cloud.ICloudStorage;
+import com.uid2.shared.health.HealthManager;
+import com.uid2.shared.middleware.AttestationMiddleware;
+import com.uid2.shared.middleware.AuthMiddleware;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.Vertx;
+
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * State shared by every CoreVerticle instance: middleware, metadata providers and their caches,
+ * the metadata change detector, and the worker pools. Created once, so that instances on different event loops share
+ * one cache and one storage read per metadata path, and register with the enclave provider only once.
+ * Everything here is safe to use from multiple event loops.
+ */
+public class CoreServices {
+    final AuthMiddleware auth;
+    final IAuthorizableProvider authProvider;
+    final AttestationService attestationService;
+    final AttestationMiddleware attestationMiddleware;
+    final IEnclaveIdentifierProvider enclaveIdentifierProvider;
+    final IAttestationTokenService attestationTokenService;
+    final AttestationTokenEncryptor attestationTokenEncryptor;
+
+    final IClientMetadataProvider clientMetadataProvider;
+    final IOperatorMetadataProvider operatorMetadataProvider;
+    final IKeyMetadataProvider keyMetadataProvider;
+    final IKeyAclMetadataProvider keyAclMetadataProvider;
+    final ISaltMetadataProvider saltMetadataProvider;
+    final IPartnerMetadataProvider partnerMetadataProvider;
+
+    final MetadataChangeDetector metadataChangeDetector;
+    final AtomicInteger metadataStreamConnections = new AtomicInteger(0);
+    private final AtomicBoolean changePollerClaimed = new AtomicBoolean(false);
+
+    private boolean executorsCreated = false;
+    BoundedWorkerExecutor metadataExecutor;
+    BoundedWorkerExecutor attestationExecutor;
+
+    public CoreServices(ICloudStorage cloudStorage, IAuthorizableProvider authProvider, AttestationService attestationService,
+                        IAttestationTokenService attestationTokenService, IEnclaveIdentifierProvider enclaveIdentifierProvider) throws Exception {
+        this.attestationService = attestationService;
+        this.attestationTokenService = attestationTokenService;
+        this.enclaveIdentifierProvider = enclaveIdentifierProvider;
+        this.enclaveIdentifierProvider.addListener(this.attestationService);
+
+        this.attestationMiddleware = new AttestationMiddleware(this.attestationTokenService);
+        this.attestationTokenEncryptor = new AttestationTokenEncryptor(
+                Optional.ofNullable(ConfigStore.Global.getInteger("attestation_public_key_cache_size")).orElse(1000));
+
+        this.authProvider = authProvider;
+        this.auth = new AuthMiddleware(authProvider);
+
+        final PreSignedUrlCachingStorage downloadUrlGenerator = new PreSignedUrlCachingStorage(cloudStorage,
+                Optional.ofNullable(ConfigStore.Global.getInteger("pre_signed_url_expiry")).orElse(1800));
+        // a stale document must not be served after the pre-signed URLs in it have expired
+        final long maxStalenessMs = Math.min(
+                Optional.ofNullable(ConfigStore.Global.getInteger("metadata_cache_max_staleness_seconds")).orElse(600) * 1000L,
+                downloadUrlGenerator.getMinRemainingValidityMs()
+                        - Optional.ofNullable(ConfigStore.Global.getInteger("metadata_cache_staleness_margin_seconds")).orElse(60) * 1000L);
+        final MetadataCache metadataCache = new MetadataCache(
+                Optional.ofNullable(ConfigStore.Global.getInteger("metadata_cache_ttl_seconds")).orElse(30) * 1000L,
+                maxStalenessMs,
+                Optional.ofNullable(ConfigStore.Global.getInteger("metadata_cache_max_entries")).orElse(1000),
+                createMetadataCompressor(),
+                HealthManager.instance.registerComponent("metadata-cache"));
+        Gauge.builder("uid2.core.metadata_cache.expired_paths", metadataCache, MetadataCache::getExpiredCount)
+                .description("gauge for metadata paths that failed to load and are older than the max staleness")
+                .register(Metrics.globalRegistry);
+        this.clientMetadataProvider = new ClientMetadataProvider(cloudStorage, downloadUrlGenerator, metadataCache);
+        this.operatorMetadataProvider = new OperatorMetadataProvider(cloudStorage, downloadUrlGenerator, metadataCache);
+        this.keyMetadataProvider = new KeyMetadataProvider(cloudStorage, downloadUrlGenerator, metadataCache);
+        this.keyAclMetadataProvider = new KeyAclMetadataProvider(cloudStorage, downloadUrlGenerator, metadataCache);
+        final int saltSigningParallelism = Optional.ofNullable(ConfigStore.Global.getInteger("salt_pre_sign_parallelism"))
+                .orElse(Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.saltMetadataProvider = new SaltMetadataProvider(cloudStorage, downloadUrlGenerator, metadataCache,
+                Executors.newFixedThreadPool(Math.max(1, saltSigningParallelism - 1), r -> {
+                    Thread thread = new Thread(r, "salt-pre-sign");
+                    thread.setDaemon(true);
+                    return thread;
+                }), saltSigningParallelism);
+        this.partnerMetadataProvider = new PartnerMetadataProvider(cloudStorage, downloadUrlGenerator, metadataCache);
+
+        this.metadataChangeDetector = new MetadataChangeDetector(metadataCache);
+    }
+
+    /**
+     * Compresses metadata bodies with the HTTP server's compression settings, or returns null when the server
+     * does not compress responses. Documents are loaded on the metadata worker pool, so this stays off the event loop.
+     */
+    private static UnaryOperator<MetadataDocument> createMetadataCompressor() {
+        if (!Optional.ofNullable(ConfigStore.Global.getBoolean("http_server_compression_enabled")).orElse(true)) {
+            return null;
+        }
+
+        final int level = Optional.ofNullable(ConfigStore.Global.getInteger("http_server_compression_level")).orElse(6);
+        final int thresholdBytes = Optional.ofNullable(ConfigStore.Global.getInteger("http_server_compression_threshold_bytes")).orElse(1024);
+        return document -> document.compress(level, thresholdBytes);
+    }
+
+    /**
+     * Creates the worker pools shared by all instances, so their queue limits apply to the process rather than
+     * to each instance. Later calls do nothing. The pools close with the context this is first called on; call it
+     * before deploying the verticles to tie them to Vert.x itself rather than to one instance.
+     */
+    public synchronized void createExecutors(Vertx vertx) {
+        if (executorsCreated) {
+            return;
+        }
+
+        executorsCreated = true;
+        if (Optional.ofNullable(ConfigStore.Global.getBoolean("metadata_worker_pool_enabled")).orElse(true)) {
+            this.metadataExecutor = new BoundedWorkerExecutor(vertx, "metadata-worker-pool",
+                    Optional.ofNullable(ConfigStore.Global.getInteger("metadata_worker_pool_size")).orElse(20),
+                    Optional.ofNullable(ConfigStore.Global.getInteger("metadata_worker_queue_limit")).orElse(1000));
+        }
+        if (Optional.ofNullable(ConfigStore.Global.getBoolean("attestation_worker_pool_enabled")).orElse(true)) {
+            this.attestationExecutor = new BoundedWorkerExecutor(vertx, "attestation-worker-pool",
+                    Optional.ofNullable(ConfigStore.Global.getInteger("attestation_worker_pool_size")).orElse(4),
+                    Optional.ofNullable(ConfigStore.Global.getInteger("attestation_worker_queue_limit")).orElse(1000));
+        }
+    }
+
+    /**
+     * Returns true for exactly one caller, the instance that should run the periodic metadata change poll.
+     */
+    boolean claimChangePoller() {
+        return changePollerClaimed.compareAndSet(false, true);
+    }
+}
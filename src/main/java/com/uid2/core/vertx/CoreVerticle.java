@@ -1,9 +1,12 @@
 package com.uid2.core.vertx;
 
 import com.uid2.core.handler.AttestationFailureHandler;
+import com.uid2.core.handler.CompressionThresholdHandler;
 import com.uid2.core.handler.GenericFailureHandler;
 import com.uid2.core.model.ConfigStore;
+import com.uid2.core.model.MetadataDocument;
 import com.uid2.core.service.*;
+import com.uid2.core.util.ContentEncoding;
 import com.uid2.core.util.OperatorInfo;
 import com.uid2.shared.Const;
 
@@ -18,9 +21,14 @@ import com.uid2.shared.middleware.AuthMiddleware;
 import com.uid2.shared.secure.*;
 import com.uid2.shared.vertx.RequestCapturingHandler;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
@@ -32,25 +40,28 @@ import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
 
-import javax.crypto.Cipher;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyFactory;
-import java.security.PublicKey;
-import java.security.spec.KeySpec;
-import java.security.spec.X509EncodedKeySpec;
+import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CoreVerticle extends AbstractVerticle {
     private final static Logger logger = LoggerFactory.getLogger(CoreVerticle.class);
+    private static final String METADATA_STALE_HEADER = "UID2-Metadata-Stale";
 
     private final HealthComponent healthComponent = HealthManager.instance.registerComponent("http-server");
     private final AuthMiddleware auth;
+    private final IAuthorizableProvider authProvider;
     private final AttestationService attestationService;
     private final AttestationMiddleware attestationMiddleware;
-    private final IAuthorizableProvider authProvider;
     private final IEnclaveIdentifierProvider enclaveIdentifierProvider;
 
     private final IAttestationTokenService attestationTokenService;
+    private final AttestationTokenEncryptor attestationTokenEncryptor;
     private final IClientMetadataProvider clientMetadataProvider;
     private final IOperatorMetadataProvider operatorMetadataProvider;
     private final IKeyMetadataProvider keyMetadataProvider;
@@ -58,38 +69,84 @@ public class CoreVerticle extends AbstractVerticle {
     private final ISaltMetadataProvider saltMetadataProvider;
     private final IPartnerMetadataProvider partnerMetadataProvider;
 
-    public CoreVerticle(ICloudStorage cloudStorage, IAuthorizableProvider authProvider, AttestationService attestationService,
-                        IAttestationTokenService attestationTokenService, IEnclaveIdentifierProvider enclaveIdentifierProvider) throws Exception {
-        this.healthComponent.setHealthStatus(false, "not started");
+    private final Map<String, MetadataSource> metadataSources = new LinkedHashMap<>();
+    private final MetadataChangeDetector metadataChangeDetector;
+    private final int longPollMaxWaitSeconds;
+    private final int attestationRetryAfterSeconds;
+    private final boolean compressionEnabled;
+    private final int compressionLevel;
+    private final int compressionThresholdBytes;
+    private final AtomicInteger metadataStreamConnections;
+    private final CoreServices services;
 
-        this.authProvider = authProvider;
+    private BoundedWorkerExecutor metadataExecutor;
+    private BoundedWorkerExecutor attestationExecutor;
 
-        this.attestationService = attestationService;
-        this.attestationTokenService = attestationTokenService;
-        this.enclaveIdentifierProvider = enclaveIdentifierProvider;
-        this.enclaveIdentifierProvider.addListener(this.attestationService);
-
-        this.attestationMiddleware = new AttestationMiddleware(this.attestationTokenService);
+    public CoreVerticle(ICloudStorage cloudStorage, IAuthorizableProvider authProvider, AttestationService attestationService,
+                        IAttestationTokenService attestationTokenService, IEnclaveIdentifierProvider enclaveIdentifierProvider) throws Exception {
+        this(new CoreServices(cloudStorage, authProvider, attestationService, attestationTokenService, enclaveIdentifierProvider));
+    }
 
-        this.auth = new AuthMiddleware(authProvider);
+    public CoreVerticle(CoreServices services) {
+        this.healthComponent.setHealthStatus(false, "not started");
 
-        this.clientMetadataProvider = new ClientMetadataProvider(cloudStorage);
-        this.operatorMetadataProvider = new OperatorMetadataProvider(cloudStorage);
-        this.keyMetadataProvider = new KeyMetadataProvider(cloudStorage);
-        this.keyAclMetadataProvider = new KeyAclMetadataProvider(cloudStorage);
-        this.saltMetadataProvider = new SaltMetadataProvider(cloudStorage);
-        this.partnerMetadataProvider = new PartnerMetadataProvider(cloudStorage);
+        this.services = services;
+        this.attestationService = services.attestationService;
+        this.attestationTokenService = services.attestationTokenService;
+        this.attestationTokenEncryptor = services.attestationTokenEncryptor;
+        this.enclaveIdentifierProvider = services.enclaveIdentifierProvider;
+        this.attestationMiddleware = services.attestationMiddleware;
+        this.auth = services.auth;
+        this.authProvider = services.authProvider;
+
+        this.clientMetadataProvider = services.clientMetadataProvider;
+        this.operatorMetadataProvider = services.operatorMetadataProvider;
+        this.keyMetadataProvider = services.keyMetadataProvider;
+        this.keyAclMetadataProvider = services.keyAclMetadataProvider;
+        this.saltMetadataProvider = services.saltMetadataProvider;
+        this.partnerMetadataProvider = services.partnerMetadataProvider;
+
+        this.metadataSources.put("keys", this.keyMetadataProvider::getMetadata);
+        this.metadataSources.put("keys_acl", this.keyAclMetadataProvider::getMetadata);
+        this.metadataSources.put("clients", this.clientMetadataProvider::getMetadata);
+        this.metadataSources.put("salts", info -> this.saltMetadataProvider.getMetadata());
+        this.metadataSources.put("operators", info -> this.operatorMetadataProvider.getMetadata());
+        this.metadataSources.put("partners", info -> this.partnerMetadataProvider.getMetadata());
+
+        this.metadataChangeDetector = services.metadataChangeDetector;
+        this.metadataStreamConnections = services.metadataStreamConnections;
+        this.longPollMaxWaitSeconds = Optional.ofNullable(ConfigStore.Global.getInteger("metadata_long_poll_max_wait_seconds")).orElse(60);
+        this.attestationRetryAfterSeconds = Optional.ofNullable(ConfigStore.Global.getInteger("attestation_retry_after_seconds")).orElse(5);
+        this.compressionEnabled = Optional.ofNullable(ConfigStore.Global.getBoolean("http_server_compression_enabled")).orElse(true);
+        this.compressionLevel = Optional.ofNullable(ConfigStore.Global.getInteger("http_server_compression_level")).orElse(6);
+        this.compressionThresholdBytes = Optional.ofNullable(ConfigStore.Global.getInteger("http_server_compression_threshold_bytes")).orElse(1024);
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
         this.healthComponent.setHealthStatus(false, "still starting");
 
+        services.createExecutors(vertx);
+        this.metadataExecutor = services.metadataExecutor;
+        this.attestationExecutor = services.attestationExecutor;
+
+        if (services.claimChangePoller()) {
+            final int changePollIntervalMs = Optional.ofNullable(ConfigStore.Global.getInteger("metadata_change_poll_interval_ms")).orElse(2000);
+            vertx.setPeriodic(changePollIntervalMs, id -> {
+                if (metadataChangeDetector.hasWatches()) {
+                    runMetadataTask(() -> {
+                        metadataChangeDetector.poll();
+                        return null;
+                    });
+                }
+            });
+        }
+
         final Router router = createRoutesSetup();
 
         final int portOffset = Utils.getPortOffset();
         final int port = Const.Port.ServicePortForCore + portOffset;
-        vertx.createHttpServer()
+        vertx.createHttpServer(createServerOptions())
                 .requestHandler(router)
                 .listen(port, ar -> {
                     if (ar.succeeded()) {
@@ -103,10 +160,29 @@ public class CoreVerticle extends AbstractVerticle {
                 });
     }
 
+    private HttpServerOptions createServerOptions() {
+        final HttpServerOptions options = new HttpServerOptions()
+                .setTcpNoDelay(Optional.ofNullable(ConfigStore.Global.getBoolean("http_server_tcp_no_delay")).orElse(true))
+                .setAcceptBacklog(Optional.ofNullable(ConfigStore.Global.getInteger("http_server_accept_backlog")).orElse(1024))
+                .setIdleTimeout(Optional.ofNullable(ConfigStore.Global.getInteger("http_server_idle_timeout_seconds")).orElse(120))
+                .setIdleTimeoutUnit(TimeUnit.SECONDS)
+                .setCompressionSupported(compressionEnabled)
+                .setCompressionLevel(compressionLevel);
+
+        // TCP_FASTOPEN and SO_REUSEPORT need the native transport
+        if (vertx.isNativeTransportEnabled()) {
+            options.setTcpFastOpen(Optional.ofNullable(ConfigStore.Global.getBoolean("http_server_tcp_fast_open")).orElse(true))
+                    .setReusePort(Optional.ofNullable(ConfigStore.Global.getBoolean("http_server_reuse_port")).orElse(true));
+        }
+        return options;
+    }
+
     private Router createRoutesSetup() {
         final Router router = Router.router(vertx);
 
-        router.route().handler(BodyHandler.create());
+        if (compressionEnabled) {
+            router.route().handler(new CompressionThresholdHandler(compressionThresholdBytes));
+        }
         router.route().handler(new RequestCapturingHandler());
         router.route().handler(CorsHandler.create()
                 .addRelativeOrigin(".*.")
@@ -120,7 +196,11 @@ public class CoreVerticle extends AbstractVerticle {
                 .allowedHeader("Content-Type"));
         router.route().failureHandler(new GenericFailureHandler());
 
+        // only /attest reads a request body, so GET requests are never buffered
+        final BodyHandler attestBodyHandler = BodyHandler.create(false)
+                .setBodyLimit(Optional.ofNullable(ConfigStore.Global.getInteger("attest_body_limit_bytes")).orElse(64 * 1024));
         router.post("/attest")
+                .handler(attestBodyHandler)
                 .handler(new AttestationFailureHandler())
                 .handler(auth.handle(this::handleAttestAsync, Role.OPERATOR));
         router.get("/key/refresh").handler(auth.handle(attestationMiddleware.handle(this::handleKeyRefresh), Role.OPERATOR));
@@ -129,6 +209,8 @@ public class CoreVerticle extends AbstractVerticle {
         router.get("/clients/refresh").handler(auth.handle(attestationMiddleware.handle(this::handleClientRefresh), Role.OPERATOR));
         router.get("/operators/refresh").handler(auth.handle(attestationMiddleware.handle(this::handleOperatorRefresh), Role.OPERATOR));
         router.get("/partners/refresh").handler(auth.handle(attestationMiddleware.handle(this::handlePartnerRefresh), Role.OPERATOR));
+        router.get("/metadata/refresh").handler(auth.handle(attestationMiddleware.handle(this::handleMetadataBatchRefresh), Role.OPERATOR));
+        router.get("/metadata/stream").handler(auth.handle(attestationMiddleware.handle(this::handleMetadataStream), Role.OPERATOR));
         router.get("/ops/healthcheck").handler(this::handleHealthCheck);
 
         if (Optional.ofNullable(ConfigStore.Global.getBoolean("enable_test_endpoints")).orElse(false)) {
@@ -153,9 +235,14 @@ public class CoreVerticle extends AbstractVerticle {
 
     private void handleAttestAsync(RoutingContext rc) {
         String token = AuthMiddleware.getAuthToken(rc);
-        IAuthorizable profile = authProvider.get(token);
-
-        OperatorKey operator = (OperatorKey) profile;
+        final OperatorKey operator;
+        try {
+            operator = OperatorInfo.getOperatorKey(rc);
+        } catch (Exception e) {
+            logger.warn("exception in handleAttestAsync: " + e.getMessage(), e);
+            Error("error", 500, rc, "error processing attestation");
+            return;
+        }
         String protocol = operator.getProtocol();
 
         JsonObject json;
@@ -179,6 +266,13 @@ public class CoreVerticle extends AbstractVerticle {
 
         try {
             attestationService.attest(protocol, request, clientPublicKey, ar -> {
+                if (ar.failed() && (ar.cause() instanceof AttestationBulkhead.Busy || ar.cause() instanceof AttestationBulkhead.Timeout
+                        || ar.cause() instanceof CircuitBreakingAttestationProvider.CircuitOpen)) {
+                    setAttestationFailureReason(rc, AttestationFailureReason.ATTESTATION_UNAVAILABLE, Collections.singletonMap("cause", ar.cause().getMessage()));
+                    rc.response().putHeader(HttpHeaders.RETRY_AFTER, String.valueOf(attestationRetryAfterSeconds));
+                    Error("attestation unavailable", 503, rc, null);
+                    return;
+                }
                 if (!ar.succeeded()) {
                     setAttestationFailureReason(rc, AttestationFailureReason.ATTESTATION_FAILURE, Collections.singletonMap("cause", ar.cause().getMessage()));
                     logger.warn("attestation failure: ", ar.cause());
@@ -193,28 +287,28 @@ public class CoreVerticle extends AbstractVerticle {
                     return;
                 }
 
-                JsonObject responseObj = new JsonObject();
-                String attestationToken = attestationTokenService.createToken(token);
-
-                if(result.getPublicKey() != null) {
-                    try {
-                        Cipher cipher = Cipher.getInstance(Const.Name.AsymetricEncryptionCipherClass);
-                        KeySpec keySpec = new X509EncodedKeySpec(result.getPublicKey());
-                        PublicKey publicKey = KeyFactory.getInstance(Const.Name.AsymetricEncryptionKeyClass).generatePublic(keySpec);
-                        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-                        attestationToken = Base64.getEncoder().encodeToString(cipher.doFinal(attestationToken.getBytes(StandardCharsets.UTF_8)));
-                    } catch (Exception e) {
-                        setAttestationFailureReason(rc, AttestationFailureReason.RESPONSE_ENCRYPTION_EXCEPTION, Collections.singletonMap("exception", e.getMessage()));
-                        logger.warn("attestation failure: exception while encrypting response", e);
+                // token creation (PBKDF2 key derivation) and RSA encryption are kept off the event loop,
+                // so a burst of attestations does not delay refresh requests
+                runAttestationTask(() -> {
+                    final String attestationToken = attestationTokenService.createToken(token);
+                    return result.getPublicKey() == null
+                            ? attestationToken
+                            : attestationTokenEncryptor.encrypt(attestationToken, result.getPublicKey());
+                }).onComplete(created -> {
+                    if (created.succeeded()) {
+                        respondWithAttestationToken(rc, created.result());
+                    } else if (created.cause() instanceof RejectedExecutionException) {
+                        logger.warn("rejected handleAttestAsync: " + created.cause().getMessage());
+                        Error("service busy", 503, rc, null);
+                    } else if (created.cause() instanceof GeneralSecurityException) {
+                        setAttestationFailureReason(rc, AttestationFailureReason.RESPONSE_ENCRYPTION_EXCEPTION, Collections.singletonMap("exception", created.cause().getMessage()));
+                        logger.warn("attestation failure: exception while encrypting response", created.cause());
+                        Error("attestation failure", 500, rc, null);
+                    } else {
+                        logger.warn("attestation failure: exception while creating attestation token", created.cause());
                         Error("attestation failure", 500, rc, null);
-                        return;
                     }
-                }
-
-                // TODO: log requester identifier
-                logger.info("attestation successful");
-                responseObj.put("attestation_token", attestationToken);
-                Success(rc, responseObj);
+                });
             });
         } catch (AttestationService.NotFound e) {
             setAttestationFailureReason(rc, AttestationFailureReason.INVALID_PROTOCOL);
@@ -232,67 +326,304 @@ public class CoreVerticle extends AbstractVerticle {
     }
 
     private void handleSaltRefresh(RoutingContext rc) {
+        handleMetadataRefresh(rc, "handleSaltRefresh", "error processing salt refresh", info -> saltMetadataProvider.getMetadata());
+    }
+
+    private void handleKeyRefresh(RoutingContext rc) {
+        handleMetadataRefresh(rc, "handleKeyRefresh", "error processing key refresh", keyMetadataProvider::getMetadata);
+    }
+
+    private void handleKeyAclRefresh(RoutingContext rc) {
+        handleMetadataRefresh(rc, "handleKeyAclRefresh", "error processing key acl refresh", keyAclMetadataProvider::getMetadata);
+    }
+
+    private void handleClientRefresh(RoutingContext rc) {
+        handleMetadataRefresh(rc, "handleClientRefresh", "error processing client refresh", clientMetadataProvider::getMetadata);
+    }
+
+    private void handleOperatorRefresh(RoutingContext rc) {
+        handleMetadataRefresh(rc, "handleOperatorRefresh", "error processing operator refresh", info -> operatorMetadataProvider.getMetadata());
+    }
+
+    private void handlePartnerRefresh(RoutingContext rc) {
+        handleMetadataRefresh(rc, "handlePartnerRefresh", "error processing partner refresh", info -> partnerMetadataProvider.getMetadata());
+    }
+
+    @FunctionalInterface
+    private interface MetadataSource {
+        CompletableFuture<MetadataDocument> getMetadata(OperatorInfo info) throws Exception;
+    }
+
+    private void handleMetadataRefresh(RoutingContext rc, String handlerName, String errorMessage, MetadataSource source) {
+        final OperatorInfo info;
         try {
-            rc.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-                    .end(saltMetadataProvider.getMetadata());
+            info = OperatorInfo.getOperatorInfo(rc);
         } catch (Exception e) {
-            logger.warn("exception in handleSaltRefresh: " + e.getMessage(), e);
-            Error("error", 500, rc, "error processing salt refresh");
+            logger.warn("exception in " + handlerName + ": " + e.getMessage(), e);
+            Error("error", 500, rc, errorMessage);
+            return;
         }
+
+        final int waitSeconds;
+        try {
+            waitSeconds = Math.min(Integer.parseInt(Optional.ofNullable(rc.request().getParam("wait")).orElse("0")), longPollMaxWaitSeconds);
+        } catch (NumberFormatException e) {
+            Error("error", 400, rc, "invalid wait parameter");
+            return;
+        }
+        final String since = rc.request().getParam("since");
+
+        loadMetadata(source, info).onComplete(ar -> {
+            if (rc.response().closed()) {
+                return;
+            }
+
+            if (ar.succeeded()) {
+                final MetadataDocument metadata = ar.result();
+                if (waitSeconds > 0 && metadata.getVersion().equals(since)) {
+                    waitForMetadataChange(rc, metadata, waitSeconds);
+                } else {
+                    respondWithMetadata(rc, metadata);
+                }
+            } else if (ar.cause() instanceof RejectedExecutionException) {
+                logger.warn("rejected " + handlerName + ": " + ar.cause().getMessage());
+                Error("error", 503, rc, "service busy");
+            } else {
+                logger.warn("exception in " + handlerName + ": " + ar.cause().getMessage(), ar.cause());
+                Error("error", 500, rc, errorMessage);
+            }
+        });
     }
 
-    private void handleKeyRefresh(RoutingContext rc) {
+    private void waitForMetadataChange(RoutingContext rc, MetadataDocument current, int waitSeconds) {
+        final Context context = vertx.getOrCreateContext();
+        final AtomicBoolean completed = new AtomicBoolean(false);
+        final MetadataChangeDetector.Watch watch = metadataChangeDetector.watch(current.getPath(), current.getVersion(),
+                changed -> context.runOnContext(v -> {
+                    if (completed.compareAndSet(false, true) && !rc.response().closed()) {
+                        respondWithMetadata(rc, changed);
+                    }
+                }));
+
+        final long timerId = vertx.setTimer(waitSeconds * 1000L, id -> {
+            if (completed.compareAndSet(false, true) && !rc.response().closed()) {
+                rc.response().putHeader(HttpHeaders.ETAG, current.getETag()).setStatusCode(304).end();
+            }
+        });
+
+        rc.addEndHandler(v -> {
+            completed.set(true);
+            watch.cancel();
+            vertx.cancelTimer(timerId);
+        });
+    }
+
+    private void handleMetadataBatchRefresh(RoutingContext rc) {
+        final OperatorInfo info;
         try {
-            OperatorInfo info = OperatorInfo.getOperatorInfo(rc);
-            rc.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-                    .end(keyMetadataProvider.getMetadata(info));
+            info = OperatorInfo.getOperatorInfo(rc);
         } catch (Exception e) {
-            logger.warn("exception in handleKeyRefresh: " + e.getMessage(), e);
-            Error("error", 500, rc, "error processing key refresh");
+            logger.warn("exception in handleMetadataBatchRefresh: " + e.getMessage(), e);
+            Error("error", 500, rc, "error processing metadata refresh");
+            return;
         }
+
+        final Map<String, MetadataSource> sources = new LinkedHashMap<>();
+        final String types = rc.request().getParam("types");
+        if (types == null || types.isEmpty()) {
+            sources.putAll(metadataSources);
+        } else {
+            for (String type : types.split(",")) {
+                type = type.trim();
+                final MetadataSource source = metadataSources.get(type);
+                if (source == null) {
+                    Error("error", 400, rc, "unknown metadata type: " + type);
+                    return;
+                }
+                sources.put(type, source);
+            }
+        }
+
+        loadMetadata(sources, info).onComplete(ar -> {
+            if (rc.response().closed()) {
+                return;
+            }
+
+            if (ar.succeeded()) {
+                final Buffer body = Buffer.buffer().appendString("{");
+                boolean first = true;
+                for (Map.Entry<String, MetadataDocument> entry : ar.result().entrySet()) {
+                    if (!first) {
+                        body.appendString(",");
+                    }
+                    first = false;
+                    body.appendString("\"").appendString(entry.getKey()).appendString("\":").appendBuffer(entry.getValue().getBody());
+                    if (entry.getValue().isStale()) {
+                        rc.response().putHeader(METADATA_STALE_HEADER, "true");
+                    }
+                }
+                body.appendString("}");
+                rc.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json").end(body);
+            } else if (ar.cause() instanceof RejectedExecutionException) {
+                logger.warn("rejected handleMetadataBatchRefresh: " + ar.cause().getMessage());
+                Error("error", 503, rc, "service busy");
+            } else {
+                logger.warn("exception in handleMetadataBatchRefresh: " + ar.cause().getMessage(), ar.cause());
+                Error("error", 500, rc, "error processing metadata refresh");
+            }
+        });
     }
 
-    private void handleKeyAclRefresh(RoutingContext rc) {
+    private void handleMetadataStream(RoutingContext rc) {
+        final OperatorInfo info;
         try {
-            OperatorInfo info = OperatorInfo.getOperatorInfo(rc);
-            rc.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-                    .end(keyAclMetadataProvider.getMetadata(info));
+            info = OperatorInfo.getOperatorInfo(rc);
         } catch (Exception e) {
-            logger.warn("exception in handleKeyAclRefresh: " + e.getMessage(), e);
-            Error("error", 500, rc, "error processing key acl refresh");
+            logger.warn("exception in handleMetadataStream: " + e.getMessage(), e);
+            Error("error", 500, rc, "error processing metadata stream");
+            return;
         }
+
+        final String authToken = AuthMiddleware.getAuthToken(rc);
+        final String attestationToken = rc.request().getHeader(AttestationMiddleware.AttestationTokenHeader);
+
+        final int maxConnections = Optional.ofNullable(ConfigStore.Global.getInteger("metadata_stream_max_connections")).orElse(1000);
+        if (metadataStreamConnections.incrementAndGet() > maxConnections) {
+            metadataStreamConnections.decrementAndGet();
+            Error("error", 503, rc, "too many metadata stream connections");
+            return;
+        }
+
+        loadMetadata(metadataSources, info).onComplete(ar -> {
+            if (ar.failed() || rc.response().closed()) {
+                metadataStreamConnections.decrementAndGet();
+                if (ar.failed() && !rc.response().closed()) {
+                    if (ar.cause() instanceof RejectedExecutionException) {
+                        Error("error", 503, rc, "service busy");
+                    } else {
+                        logger.warn("exception in handleMetadataStream: " + ar.cause().getMessage(), ar.cause());
+                        Error("error", 500, rc, "error processing metadata stream");
+                    }
+                }
+                return;
+            }
+
+            final long heartbeatIntervalMs = Optional.ofNullable(ConfigStore.Global.getInteger("metadata_stream_heartbeat_seconds")).orElse(30) * 1000L;
+            new MetadataStreamConnection(vertx, rc.response())
+                    .open(ar.result(), metadataChangeDetector, heartbeatIntervalMs,
+                            () -> isStillAuthorized(authToken, attestationToken), metadataStreamConnections::decrementAndGet);
+        });
     }
 
-    private void handleClientRefresh(RoutingContext rc) {
-        try {
-            OperatorInfo info = OperatorInfo.getOperatorInfo(rc);
+    // Repeats the AuthMiddleware and AttestationMiddleware checks for a connection that outlives its request.
+    private boolean isStillAuthorized(String authToken, String attestationToken) {
+        final IAuthorizable profile = authProvider.get(authToken);
+        if (!(profile instanceof OperatorKey) || profile.isDisabled() || !((OperatorKey) profile).hasRole(Role.OPERATOR)) {
+            return false;
+        }
+        return attestationTokenService.validateToken(authToken, attestationToken);
+    }
+
+    private Future<Map<String, MetadataDocument>> loadMetadata(Map<String, MetadataSource> sources, OperatorInfo info) {
+        final List<String> types = new ArrayList<>(sources.keySet());
+        final List<Future> futures = new ArrayList<>();
+        for (String type : types) {
+            final MetadataSource source = sources.get(type);
+            futures.add(loadMetadata(source, info));
+        }
+
+        return CompositeFuture.all(futures).map(cf -> {
+            final Map<String, MetadataDocument> documents = new LinkedHashMap<>();
+            for (int i = 0; i < types.size(); i++) {
+                documents.put(types.get(i), cf.resultAt(i));
+            }
+            return documents;
+        });
+    }
+
+    private Future<MetadataDocument> loadMetadata(MetadataSource source, OperatorInfo info) {
+        final Context context = vertx.getOrCreateContext();
+        return runMetadataTask(() -> source.getMetadata(info))
+                .compose(pending -> Future.fromCompletionStage(pending, context));
+    }
+
+    private void respondWithMetadata(RoutingContext rc, MetadataDocument metadata) {
+        final String etag = metadata.getETag();
+        rc.response().putHeader(HttpHeaders.ETAG, etag);
+        if (metadata.isStale()) {
+            rc.response().putHeader(METADATA_STALE_HEADER, "true");
+        }
+        if (isNotModified(rc.request().getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            rc.response().setStatusCode(304).end();
+        } else {
             rc.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-                    .end(clientMetadataProvider.getMetadata(info));
-        } catch (Exception e) {
-            logger.warn("exception in handleClientRefresh: " + e.getMessage(), e);
-            Error("error", 500, rc, "error processing client refresh");
+                    .end(encodeMetadataBody(rc, metadata));
         }
     }
 
-    private void handleOperatorRefresh(RoutingContext rc) {
+    // metadata bodies are compressed once when loaded, so responses only pick the negotiated encoding
+    private Buffer encodeMetadataBody(RoutingContext rc, MetadataDocument metadata) {
+        if (!compressionEnabled) {
+            return metadata.getBody();
+        }
+
+        rc.response().putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        final String encoding = ContentEncoding.negotiate(rc.request().getHeader(HttpHeaders.ACCEPT_ENCODING));
+        final Buffer encoded = encoding != null ? metadata.getBody(encoding) : null;
+        if (encoded == null) {
+            return metadata.getBody();
+        }
+
+        rc.response().putHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+        return encoded;
+    }
+
+    private static boolean isNotModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void respondWithAttestationToken(RoutingContext rc, String attestationToken) {
+        // TODO: log requester identifier
+        logger.info("attestation successful");
+        JsonObject responseObj = new JsonObject();
+        responseObj.put("attestation_token", attestationToken);
+        Success(rc, responseObj);
+    }
+
+    private <T> Future<T> runAttestationTask(Callable<T> task) {
+        if (this.attestationExecutor != null) {
+            return this.attestationExecutor.execute(task);
+        }
+
         try {
-            OperatorInfo info = OperatorInfo.getOperatorInfo(rc);
-            rc.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-                    .end(operatorMetadataProvider.getMetadata());
+            return Future.succeededFuture(task.call());
         } catch (Exception e) {
-            logger.warn("exception in handleOperatorRefresh: " + e.getMessage(), e);
-            Error("error", 500, rc, "error processing operator refresh");
+            return Future.failedFuture(e);
         }
     }
 
-    private void handlePartnerRefresh(RoutingContext rc) {
+    private <T> Future<T> runMetadataTask(Callable<T> task) {
+        if (this.metadataExecutor != null) {
+            return this.metadataExecutor.execute(task);
+        }
+
         try {
-            OperatorInfo info = OperatorInfo.getOperatorInfo(rc);
-            rc.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-                    .end(partnerMetadataProvider.getMetadata());
+            return Future.succeededFuture(task.call());
         } catch (Exception e) {
-            logger.warn("exception in handlePartnerRefresh: " + e.getMessage(), e);
-            Error("error", 500, rc, "error processing partner refresh");
+            return Future.failedFuture(e);
         }
     }
 
@@ -0,0 +1,124 @@
+package com.uid2.core.vertx;
+
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.core.service.MetadataChangeDetector;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * One operator connection to the metadata Server-Sent Events stream.
+ * While the connection's write queue is full, only the latest pending document of each metadata type is kept,
+ * and it is written once the queue drains, so a slow reader holds at most one document per type in memory.
+ * The operator's credentials are checked again before every push and heartbeat, and the stream is ended as soon as
+ * the operator key is revoked or the attestation token expires.
+ */
+public class MetadataStreamConnection {
+    private static final Buffer HEARTBEAT = Buffer.buffer(": heartbeat\n\n");
+
+    private final Vertx vertx;
+    private final Context context;
+    private final HttpServerResponse response;
+    private final Map<String, MetadataDocument> pending = new LinkedHashMap<>();
+    private final List<MetadataChangeDetector.Watch> watches = new ArrayList<>();
+    private BooleanSupplier authorized;
+    private Runnable onClose;
+    private long heartbeatTimerId = -1;
+    private boolean closed = false;
+
+    public MetadataStreamConnection(Vertx vertx, HttpServerResponse response) {
+        this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
+        this.response = response;
+    }
+
+    public void open(Map<String, MetadataDocument> documents, MetadataChangeDetector changeDetector, long heartbeatIntervalMs,
+                     BooleanSupplier authorized, Runnable onClose) {
+        this.authorized = authorized;
+        this.onClose = onClose;
+        response.closeHandler(v -> close());
+        response.drainHandler(v -> flush());
+        response.setChunked(true)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "text/event-stream")
+                .putHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+        for (Map.Entry<String, MetadataDocument> entry : documents.entrySet()) {
+            final String type = entry.getKey();
+            final MetadataDocument document = entry.getValue();
+            send(type, document);
+            if (closed) {
+                return;
+            }
+            watches.add(changeDetector.watch(document.getPath(), document.getVersion(),
+                    changed -> context.runOnContext(v -> send(type, changed))));
+        }
+
+        heartbeatTimerId = vertx.setPeriodic(heartbeatIntervalMs, id -> {
+            if (!closed && !response.writeQueueFull() && checkAuthorized()) {
+                response.write(HEARTBEAT);
+            }
+        });
+    }
+
+    private void send(String type, MetadataDocument document) {
+        if (closed) {
+            return;
+        }
+
+        pending.put(type, document);
+        flush();
+    }
+
+    private void flush() {
+        if (closed || pending.isEmpty() || response.writeQueueFull() || !checkAuthorized()) {
+            return;
+        }
+
+        while (!pending.isEmpty() && !response.writeQueueFull()) {
+            final String type = pending.keySet().iterator().next();
+            final MetadataDocument document = pending.remove(type);
+            response.write(Buffer.buffer()
+                    .appendString("event: ").appendString(type)
+                    .appendString("\nid: ").appendString(document.getVersion())
+                    .appendString("\ndata: ").appendBuffer(document.getBody())
+                    .appendString("\n\n"));
+        }
+    }
+
+    private boolean checkAuthorized() {
+        boolean stillAuthorized;
+        try {
+            stillAuthorized = authorized.getAsBoolean();
+        } catch (Exception e) {
+            stillAuthorized = false;
+        }
+        if (!stillAuthorized) {
+            close();
+            if (!response.ended() && !response.closed()) {
+                response.end();
+            }
+        }
+        return stillAuthorized;
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        pending.clear();
+        watches.forEach(MetadataChangeDetector.Watch::cancel);
+        watches.clear();
+        vertx.cancelTimer(heartbeatTimerId);
+        onClose.run();
+    }
+}
@@ -0,0 +1,58 @@
+package com.uid2.benchmarks;
+
+import com.uid2.core.service.AttestationService;
+import com.uid2.core.service.SwappingAttestationProvider;
+import com.uid2.shared.model.EnclaveIdentifier;
+import com.uid2.shared.secure.AzureAttestationProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AttestationService.handle with 10k enclave identifiers spread over four protocols, for a
+ * rotation that changes nothing and for one that adds or removes a single identifier, which rebuilds
+ * the allowlist of one protocol.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnclaveRotationBenchmark {
+    private static final String[] PROTOCOLS = {"protocol-0", "protocol-1", "protocol-2", "protocol-3"};
+    private static final int ENCLAVES = 10_000;
+
+    private AttestationService service;
+    private Set<EnclaveIdentifier> enclaves;
+    private Set<EnclaveIdentifier> changedEnclaves;
+    private boolean changed;
+
+    @Setup
+    public void setup() throws Exception {
+        service = new AttestationService();
+        for (String protocol : PROTOCOLS) {
+            service.with(protocol, new SwappingAttestationProvider(protocol, () -> new AzureAttestationProvider("https://localhost", null)));
+        }
+        enclaves = new HashSet<>();
+        for (int i = 0; i < ENCLAVES; i++) {
+            enclaves.add(new EnclaveIdentifier("enclave-" + i, PROTOCOLS[i % PROTOCOLS.length], String.format("%064x", i), 0));
+        }
+        changedEnclaves = new HashSet<>(enclaves);
+        changedEnclaves.add(new EnclaveIdentifier("enclave-new", PROTOCOLS[0], String.format("%064x", ENCLAVES), 0));
+        service.handle(enclaves);
+    }
+
+    @Benchmark
+    public void unchangedRotation() {
+        service.handle(new HashSet<>(enclaves));
+    }
+
+    @Benchmark
+    public void singleChangeRotation() {
+        changed = !changed;
+        service.handle(changed ? changedEnclaves : enclaves);
+    }
+}
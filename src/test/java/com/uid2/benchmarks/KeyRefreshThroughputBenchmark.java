@@ -0,0 +1,91 @@
+package com.uid2.benchmarks;
+
+import com.uid2.core.model.SecretStore;
+import com.uid2.core.service.AttestationService;
+import com.uid2.core.vertx.CoreServices;
+import com.uid2.core.vertx.CoreVerticle;
+import com.uid2.shared.Const;
+import com.uid2.shared.attest.IAttestationTokenService;
+import com.uid2.shared.auth.IAuthorizableProvider;
+import com.uid2.shared.auth.IEnclaveIdentifierProvider;
+import com.uid2.shared.auth.OperatorKey;
+import com.uid2.shared.auth.OperatorType;
+import com.uid2.shared.cloud.ICloudStorage;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures /key/refresh throughput with 1, 2 and 4 CoreVerticle instances against mocked storage,
+ * so the result is bound by the HTTP and auth work on the event loops. Scaling with the instance count
+ * needs at least as many free cores as instances plus the client threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class KeyRefreshThroughputBenchmark {
+    @Param({"1", "2", "4"})
+    public int instances;
+
+    private Vertx vertx;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        SecretStore.Global.load(new JsonObject().put("keys_metadata_path", "keys/metadata.json"));
+
+        final ICloudStorage cloudStorage = mock(ICloudStorage.class);
+        final String metadata = new JsonObject().put("version", 1).put("keys", new JsonObject().put("location", "keys/keys.json")).encode();
+        when(cloudStorage.download(any())).thenAnswer(i -> new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8)));
+        when(cloudStorage.preSignUrl(any())).thenAnswer(i -> new URL("https://example.com/" + i.getArgument(0)));
+        final IAuthorizableProvider authProvider = mock(IAuthorizableProvider.class);
+        when(authProvider.get(any())).thenReturn(new OperatorKey("test-key", "", "", "trusted", 0, false, 99, new HashSet<>(), OperatorType.PUBLIC));
+        final IAttestationTokenService attestationTokenService = mock(IAttestationTokenService.class);
+        when(attestationTokenService.validateToken(any(), any())).thenReturn(true);
+
+        final CoreServices services = new CoreServices(cloudStorage, authProvider, new AttestationService(), attestationTokenService,
+                mock(IEnclaveIdentifierProvider.class));
+        vertx = Vertx.vertx();
+        vertx.deployVerticle(() -> new CoreVerticle(services), new DeploymentOptions().setInstances(instances))
+                .toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create(String.format("http://127.0.0.1:%d/key/refresh", Const.Port.ServicePortForCore)))
+                .header("Authorization", "Bearer test-key")
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public int keyRefresh() throws Exception {
+        final HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("unexpected status " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
@@ -0,0 +1,115 @@
+package com.uid2.benchmarks;
+
+import com.uid2.core.model.SecretStore;
+import com.uid2.core.service.AttestationService;
+import com.uid2.core.vertx.CoreServices;
+import com.uid2.core.vertx.CoreVerticle;
+import com.uid2.shared.Const;
+import com.uid2.shared.attest.IAttestationTokenService;
+import com.uid2.shared.auth.IAuthorizable;
+import com.uid2.shared.auth.IAuthorizableProvider;
+import com.uid2.shared.auth.IEnclaveIdentifierProvider;
+import com.uid2.shared.auth.OperatorKey;
+import com.uid2.shared.auth.OperatorType;
+import com.uid2.shared.cloud.ICloudStorage;
+import com.uid2.shared.secure.TrustedAttestationProvider;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the latency of single /attest and /key/refresh requests against one CoreVerticle, with the operator
+ * keys held in a map the way RotatingOperatorKeyProvider holds them, so the result shows the per-request
+ * overhead of routing, authentication and the handlers rather than of storage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestOverheadBenchmark {
+    private Vertx vertx;
+    private HttpClient client;
+    private HttpRequest attestRequest;
+    private HttpRequest keyRefreshRequest;
+
+    @Setup
+    public void setup() throws Exception {
+        SecretStore.Global.load(new JsonObject().put("keys_metadata_path", "keys/metadata.json"));
+
+        final ICloudStorage cloudStorage = mock(ICloudStorage.class);
+        final String metadata = new JsonObject().put("version", 1).put("keys", new JsonObject().put("location", "keys/keys.json")).encode();
+        when(cloudStorage.download(any())).thenAnswer(i -> new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8)));
+        when(cloudStorage.preSignUrl(any())).thenAnswer(i -> new URL("https://example.com/" + i.getArgument(0)));
+        final Map<String, IAuthorizable> operatorKeys = new HashMap<>();
+        operatorKeys.put("test-key", new OperatorKey("test-key", "", "", "trusted", 0, false, 99, new HashSet<>(), OperatorType.PUBLIC));
+        final IAuthorizableProvider authProvider = operatorKeys::get;
+        final IAttestationTokenService attestationTokenService = mock(IAttestationTokenService.class);
+        when(attestationTokenService.validateToken(any(), any())).thenReturn(true);
+        when(attestationTokenService.createToken(any())).thenReturn("attestation-token");
+
+        final AttestationService attestationService = new AttestationService().with("trusted", new TrustedAttestationProvider());
+        final CoreServices services = new CoreServices(cloudStorage, authProvider, attestationService, attestationTokenService,
+                mock(IEnclaveIdentifierProvider.class));
+        vertx = Vertx.vertx();
+        vertx.deployVerticle(new CoreVerticle(services)).toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final String attestBody = new JsonObject()
+                .put("attestation_request", Base64.getEncoder().encodeToString("attestation-document".getBytes(StandardCharsets.UTF_8)))
+                .put("public_key", Base64.getEncoder().encodeToString(generator.generateKeyPair().getPublic().getEncoded()))
+                .encode();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        attestRequest = HttpRequest.newBuilder(URI.create(String.format("http://127.0.0.1:%d/attest", Const.Port.ServicePortForCore)))
+                .header("Authorization", "Bearer test-key")
+                .POST(HttpRequest.BodyPublishers.ofString(attestBody))
+                .build();
+        keyRefreshRequest = HttpRequest.newBuilder(URI.create(String.format("http://127.0.0.1:%d/key/refresh", Const.Port.ServicePortForCore)))
+                .header("Authorization", "Bearer test-key")
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public int attest() throws Exception {
+        return send(attestRequest);
+    }
+
+    @Benchmark
+    public int keyRefresh() throws Exception {
+        return send(keyRefreshRequest);
+    }
+
+    private int send(HttpRequest request) throws Exception {
+        final HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("unexpected status " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
@@ -1,6 +1,9 @@
 package com.uid2.core.vertx;
 
+import com.uid2.core.model.SecretStore;
+import com.uid2.core.service.AttestationBulkhead;
 import com.uid2.core.service.AttestationService;
+import com.uid2.core.service.SaltMetadataProvider;
 import com.uid2.shared.Const;
 import com.uid2.shared.attest.IAttestationTokenService;
 import com.uid2.shared.auth.*;
@@ -12,8 +15,13 @@ import com.uid2.shared.secure.IAttestationProvider;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
@@ -28,12 +36,21 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import javax.crypto.Cipher;
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
 
 import static org.mockito.Mockito.*;
 
@@ -51,6 +68,7 @@ public class TestCoreVerticle {
   private IEnclaveIdentifierProvider enclaveIdentifierProvider;
 
   private AttestationService attestationService;
+  private final AtomicReference<String> saltsMetadata = new AtomicReference<>();
 
   private static final String attestationProtocol = "test-attestation-protocol";
 
@@ -76,6 +94,72 @@ public class TestCoreVerticle {
     client.postAbs(getUrlForEndpoint(endpoint)).sendBuffer(Buffer.buffer(body), handler);
   }
 
+  private void get(Vertx vertx, String endpoint, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
+    get(vertx, endpoint, MultiMap.caseInsensitiveMultiMap(), handler);
+  }
+
+  private void get(Vertx vertx, String endpoint, MultiMap headers, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
+    WebClient client = WebClient.create(vertx);
+    client.getAbs(getUrlForEndpoint(endpoint))
+        .putHeader("Authorization", "Bearer test-key")
+        .putHeader("Attestation-Token", "test-attestation-token")
+        .putHeaders(headers)
+        .send(handler);
+  }
+
+  private void fakeAllMetadata(Map<String, AtomicReference<String>> metadata) throws Throwable {
+    JsonObject secrets = new JsonObject()
+        .put("keys_metadata_path", "keys/metadata.json")
+        .put("keys_acl_metadata_path", "keys_acl/metadata.json")
+        .put("clients_metadata_path", "clients/metadata.json")
+        .put("operators_metadata_path", "operators/metadata.json")
+        .put("partners_metadata_path", "partners/metadata.json")
+        .put(SaltMetadataProvider.SaltsMetadataPathName, "salts/metadata.json");
+    SecretStore.Global.load(secrets);
+    metadata.put("keys", new AtomicReference<>(makeMetadataJson("keys", 1)));
+    metadata.put("keys_acl", new AtomicReference<>(makeMetadataJson("keys_acl", 1)));
+    metadata.put("clients", new AtomicReference<>(makeMetadataJson("client_keys", 1)));
+    metadata.put("operators", new AtomicReference<>(makeMetadataJson("operators", 1)));
+    metadata.put("partners", new AtomicReference<>(makeMetadataJson("partners", 1)));
+    metadata.put("salts", new AtomicReference<>(makeSaltsMetadataJson(1)));
+
+    fakeAuth(Role.OPERATOR);
+    when(attestationTokenService.validateToken(any(), any())).thenReturn(true);
+    when(cloudStorage.download(any())).thenAnswer(i -> {
+      String path = i.getArgument(0);
+      String type = path.substring(0, path.indexOf('/'));
+      return new ByteArrayInputStream(metadata.get(type).get().getBytes(StandardCharsets.UTF_8));
+    });
+    when(cloudStorage.preSignUrl(any())).thenAnswer(i -> new URL("https://example.com/" + i.getArgument(0)));
+  }
+
+  private static String makeMetadataJson(String field, int version) {
+    return new JsonObject()
+        .put("version", version)
+        .put(field, new JsonObject().put("location", field + "/" + field + ".json"))
+        .encode();
+  }
+
+  private static String makeSaltsMetadataJson(int version) {
+    return new JsonObject()
+        .put("version", version)
+        .put("salts", new JsonArray().add(new JsonObject().put("location", "salts/salts.txt")))
+        .encode();
+  }
+
+  private void fakeSaltsMetadata(long downloadDelayMs) throws Throwable {
+    SecretStore.Global.load(new JsonObject().put(SaltMetadataProvider.SaltsMetadataPathName, "salts/metadata.json"));
+    saltsMetadata.set(makeSaltsMetadataJson(1));
+
+    fakeAuth(Role.OPERATOR);
+    when(attestationTokenService.validateToken(any(), any())).thenReturn(true);
+    when(cloudStorage.download(any())).thenAnswer(i -> {
+      Thread.sleep(downloadDelayMs);
+      return new ByteArrayInputStream(saltsMetadata.get().getBytes(StandardCharsets.UTF_8));
+    });
+    when(cloudStorage.preSignUrl(any())).thenAnswer(i -> new URL("https://example.com/" + i.getArgument(0)));
+  }
+
   private void addAttestationProvider(String protocol) {
     attestationService.with(protocol, attestationProvider);
   }
@@ -117,6 +201,19 @@ public class TestCoreVerticle {
     });
   }
 
+  @Test
+  void attestRequestBodyOverLimit(Vertx vertx, VertxTestContext testContext) {
+    fakeAuth(Role.OPERATOR);
+    addAttestationProvider(attestationProtocol);
+    String body = new JsonObject().put("attestation_request", "a".repeat(128 * 1024)).encode();
+    post(vertx, "attest", body, ar -> {
+      assertTrue(ar.succeeded());
+      HttpResponse response = ar.result();
+      assertEquals(413, response.statusCode());
+      testContext.completeNow();
+    });
+  }
+
   @Test
   void attestNoAttestationRequestInBody(Vertx vertx, VertxTestContext testContext) {
     fakeAuth(Role.OPERATOR);
@@ -183,6 +280,20 @@ public class TestCoreVerticle {
     });
   }
 
+  @Test
+  void attestRejectedWhenProtocolBusy(Vertx vertx, VertxTestContext testContext) {
+    fakeAuth(Role.OPERATOR);
+    attestationService.with(attestationProtocol, attestationProvider, new AttestationBulkhead(vertx, attestationProtocol, 0, 0, 0));
+    post(vertx, "attest", makeAttestationRequestJson("xxx", "yyy"), ar -> {
+      assertTrue(ar.succeeded());
+      HttpResponse response = ar.result();
+      assertEquals(503, response.statusCode());
+      assertEquals("5", response.getHeader("Retry-After"));
+      verify(attestationProvider, never()).attest(any(), any(), any());
+      testContext.completeNow();
+    });
+  }
+
   @Test
   void attestSuccessNoEncryption(Vertx vertx, VertxTestContext testContext) {
     fakeAuth(Role.OPERATOR);
@@ -270,4 +381,267 @@ public class TestCoreVerticle {
       testContext.completeNow();
     });
   }
+
+  @Test
+  void slowStorageDoesNotBlockHealthCheck(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(3000);
+
+    AtomicLong healthCheckCompleted = new AtomicLong();
+    long started = System.currentTimeMillis();
+    get(vertx, "salt/refresh", ar -> {
+      testContext.verify(() -> {
+        assertTrue(ar.succeeded());
+        assertEquals(200, ar.result().statusCode());
+        assertTrue(healthCheckCompleted.get() > 0);
+        assertTrue(healthCheckCompleted.get() - started < 1000);
+      });
+      testContext.completeNow();
+    });
+
+    vertx.setTimer(200, id -> get(vertx, "ops/healthcheck", ar -> {
+      testContext.verify(() -> assertTrue(ar.succeeded()));
+      healthCheckCompleted.set(System.currentTimeMillis());
+    }));
+  }
+
+  @Test
+  void metadataRefreshReturnsNotModifiedForMatchingETag(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(0);
+
+    get(vertx, "salt/refresh", ar -> {
+      testContext.verify(() -> {
+        assertTrue(ar.succeeded());
+        assertEquals(200, ar.result().statusCode());
+        String etag = ar.result().getHeader("ETag");
+        assertNotNull(etag);
+
+        get(vertx, "salt/refresh", MultiMap.caseInsensitiveMultiMap().add("If-None-Match", etag), ar2 -> {
+          testContext.verify(() -> {
+            assertTrue(ar2.succeeded());
+            assertEquals(304, ar2.result().statusCode());
+            assertEquals(etag, ar2.result().getHeader("ETag"));
+            assertNull(ar2.result().body());
+          });
+
+          get(vertx, "salt/refresh", MultiMap.caseInsensitiveMultiMap().add("If-None-Match", "\"stale\""), ar3 -> {
+            testContext.verify(() -> {
+              assertTrue(ar3.succeeded());
+              assertEquals(200, ar3.result().statusCode());
+              assertEquals(etag, ar3.result().getHeader("ETag"));
+            });
+            testContext.completeNow();
+          });
+        });
+      });
+    });
+  }
+
+  @Test
+  void metadataLongPollReturnsWhenVersionChanges(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(0);
+
+    get(vertx, "salt/refresh", ar -> {
+      testContext.verify(() -> {
+        assertTrue(ar.succeeded());
+        String etag = ar.result().getHeader("ETag");
+        String version = etag.substring(1, etag.length() - 1);
+
+        long started = System.currentTimeMillis();
+        get(vertx, "salt/refresh?wait=20&since=" + version, ar2 -> {
+          testContext.verify(() -> {
+            assertTrue(ar2.succeeded());
+            assertEquals(200, ar2.result().statusCode());
+            assertNotEquals(etag, ar2.result().getHeader("ETag"));
+            assertEquals(2, ar2.result().bodyAsJsonObject().getInteger("version"));
+            assertTrue(System.currentTimeMillis() - started < 10000);
+          });
+          testContext.completeNow();
+        });
+
+        vertx.setTimer(500, id -> saltsMetadata.set(makeSaltsMetadataJson(2)));
+      });
+    });
+  }
+
+  @Test
+  void metadataLongPollTimesOutWithNotModified(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(0);
+
+    get(vertx, "salt/refresh", ar -> {
+      testContext.verify(() -> {
+        assertTrue(ar.succeeded());
+        String etag = ar.result().getHeader("ETag");
+        String version = etag.substring(1, etag.length() - 1);
+
+        long started = System.currentTimeMillis();
+        get(vertx, "salt/refresh?wait=1&since=" + version, ar2 -> {
+          testContext.verify(() -> {
+            assertTrue(ar2.succeeded());
+            assertEquals(304, ar2.result().statusCode());
+            assertEquals(etag, ar2.result().getHeader("ETag"));
+            assertTrue(System.currentTimeMillis() - started >= 1000);
+          });
+          testContext.completeNow();
+        });
+      });
+    });
+  }
+
+  @Test
+  void saltRefreshFailsForMetadataWithoutSalts(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(0);
+    saltsMetadata.set(new JsonObject().put("version", 1).encode());
+
+    get(vertx, "salt/refresh", testContext.succeeding(response -> testContext.verify(() -> {
+      assertEquals(500, response.statusCode());
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void metadataLongPollReturnsImmediatelyForOutdatedVersion(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(0);
+
+    get(vertx, "salt/refresh?wait=20&since=outdated", ar -> {
+      testContext.verify(() -> {
+        assertTrue(ar.succeeded());
+        assertEquals(200, ar.result().statusCode());
+        assertEquals(1, ar.result().bodyAsJsonObject().getInteger("version"));
+      });
+      testContext.completeNow();
+    });
+  }
+
+  @Test
+  void metadataStreamPushesInitialDocumentsAndChanges(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    Map<String, AtomicReference<String>> metadata = new HashMap<>();
+    fakeAllMetadata(metadata);
+
+    HttpClient client = vertx.createHttpClient();
+    RequestOptions options = new RequestOptions()
+        .setMethod(HttpMethod.GET)
+        .setAbsoluteURI(getUrlForEndpoint("metadata/stream"))
+        .putHeader("Authorization", "Bearer test-key")
+        .putHeader("Attestation-Token", "test-attestation-token");
+    client.request(options).compose(req -> req.send()).onComplete(testContext.succeeding(response -> {
+      testContext.verify(() -> {
+        assertEquals(200, response.statusCode());
+        assertEquals("text/event-stream", response.getHeader("Content-Type"));
+      });
+
+      StringBuilder received = new StringBuilder();
+      response.handler(buffer -> {
+        received.append(buffer.toString());
+        String events = received.toString();
+        if (events.contains("\"version\":2")) {
+          testContext.verify(() -> {
+            for (String type : new String[]{"keys", "keys_acl", "clients", "salts", "operators", "partners"}) {
+              assertTrue(events.contains("event: " + type + "\n"), type);
+            }
+            assertTrue(events.lastIndexOf("event: salts\n") > events.indexOf("event: partners\n"));
+          });
+          testContext.completeNow();
+        } else if (events.contains("event: partners\n") && metadata.get("salts").get().contains("\"version\":1")) {
+          metadata.get("salts").set(makeSaltsMetadataJson(2));
+        }
+      });
+    }));
+  }
+
+  @Test
+  void metadataStreamEndsWhenAttestationTokenIsNoLongerValid(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    Map<String, AtomicReference<String>> metadata = new HashMap<>();
+    fakeAllMetadata(metadata);
+
+    HttpClient client = vertx.createHttpClient();
+    RequestOptions options = new RequestOptions()
+        .setMethod(HttpMethod.GET)
+        .setAbsoluteURI(getUrlForEndpoint("metadata/stream"))
+        .putHeader("Authorization", "Bearer test-key")
+        .putHeader("Attestation-Token", "test-attestation-token");
+    client.request(options).compose(req -> req.send()).onComplete(testContext.succeeding(response -> {
+      StringBuilder received = new StringBuilder();
+      response.handler(buffer -> {
+        received.append(buffer.toString());
+        if (received.toString().contains("event: partners\n") && metadata.get("salts").get().contains("\"version\":1")) {
+          when(attestationTokenService.validateToken(any(), any())).thenReturn(false);
+          metadata.get("salts").set(makeSaltsMetadataJson(2));
+        }
+      });
+      response.endHandler(v -> {
+        testContext.verify(() -> assertFalse(received.toString().contains("\"version\":2")));
+        testContext.completeNow();
+      });
+    }));
+  }
+
+  @Test
+  void metadataBatchRefreshReturnsAllDocuments(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeAllMetadata(new HashMap<>());
+
+    get(vertx, "metadata/refresh", testContext.succeeding(response -> testContext.verify(() -> {
+      assertEquals(200, response.statusCode());
+      JsonObject json = response.bodyAsJsonObject();
+      assertEquals(new HashSet<>(Arrays.asList("keys", "keys_acl", "clients", "salts", "operators", "partners")), json.fieldNames());
+      assertEquals(1, json.getJsonObject("salts").getInteger("version"));
+      assertNotNull(json.getJsonObject("partners").getJsonObject("partners").getString("location"));
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void metadataBatchRefreshReturnsRequestedSubset(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeAllMetadata(new HashMap<>());
+
+    get(vertx, "metadata/refresh?types=salts,keys", testContext.succeeding(response -> testContext.verify(() -> {
+      assertEquals(200, response.statusCode());
+      assertEquals(new HashSet<>(Arrays.asList("salts", "keys")), response.bodyAsJsonObject().fieldNames());
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void metadataBatchRefreshRejectsUnknownType(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeAllMetadata(new HashMap<>());
+
+    get(vertx, "metadata/refresh?types=salts,unknown", testContext.succeeding(response -> testContext.verify(() -> {
+      assertEquals(400, response.statusCode());
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void metadataRefreshSendsPreCompressedBodyWhenAccepted(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(0);
+    JsonArray salts = new JsonArray();
+    for (int i = 0; i < 100; i++) {
+      salts.add(new JsonObject().put("effective", i).put("location", "salts/salts.txt." + i));
+    }
+    saltsMetadata.set(new JsonObject().put("version", 1).put("salts", salts).encode());
+
+    get(vertx, "salt/refresh", testContext.succeeding(plain -> {
+      get(vertx, "salt/refresh", MultiMap.caseInsensitiveMultiMap().add("Accept-Encoding", "br;q=1.0, gzip;q=0.8"), testContext.succeeding(gzipped -> testContext.verify(() -> {
+        assertNull(plain.getHeader("Content-Encoding"));
+        assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+        assertTrue("accept-encoding".equalsIgnoreCase(gzipped.getHeader("Vary")));
+        assertTrue(gzipped.body().length() < plain.body().length());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.body().getBytes()))) {
+          assertEquals(plain.bodyAsJsonObject(), new JsonObject(Buffer.buffer(in.readAllBytes())));
+        }
+        testContext.completeNow();
+      })));
+    }));
+  }
+
+  @Test
+  void metadataRefreshDoesNotCompressSmallBody(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    fakeSaltsMetadata(0);
+
+    get(vertx, "salt/refresh", MultiMap.caseInsensitiveMultiMap().add("Accept-Encoding", "gzip, deflate"), testContext.succeeding(response -> testContext.verify(() -> {
+      assertEquals(200, response.statusCode());
+      assertNull(response.getHeader("Content-Encoding"));
+      assertEquals(1, response.bodyAsJsonObject().getInteger("version"));
+      testContext.completeNow();
+    })));
+  }
 }
@@ -0,0 +1,97 @@
+package com.uid2.core.vertx;
+
+import com.uid2.core.model.SecretStore;
+import com.uid2.core.service.AttestationService;
+import com.uid2.shared.Const;
+import com.uid2.shared.attest.IAttestationTokenService;
+import com.uid2.shared.auth.IAuthorizableProvider;
+import com.uid2.shared.auth.IEnclaveIdentifierProvider;
+import com.uid2.shared.auth.OperatorKey;
+import com.uid2.shared.auth.OperatorType;
+import com.uid2.shared.cloud.ICloudStorage;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(VertxExtension.class)
+public class TestCoreVerticleInstances {
+  private static final int INSTANCES = 4;
+  private static final int REQUESTS = 200;
+
+  @Mock
+  private ICloudStorage cloudStorage;
+  @Mock
+  private IAuthorizableProvider authProvider;
+  @Mock
+  private IAttestationTokenService attestationTokenService;
+  @Mock
+  private IEnclaveIdentifierProvider enclaveIdentifierProvider;
+
+  private final AtomicInteger downloads = new AtomicInteger();
+
+  @BeforeEach
+  void deployVerticles(Vertx vertx, VertxTestContext testContext) throws Throwable {
+    MockitoAnnotations.initMocks(this);
+    SecretStore.Global.load(new JsonObject().put("keys_metadata_path", "keys/metadata.json"));
+
+    OperatorKey operatorKey = new OperatorKey("test-key", "", "", "trusted", 0, false, 99, new HashSet<>(), OperatorType.PUBLIC);
+    when(authProvider.get(any())).thenReturn(operatorKey);
+    when(attestationTokenService.validateToken(any(), any())).thenReturn(true);
+    when(cloudStorage.download(any())).thenAnswer(i -> {
+      downloads.incrementAndGet();
+      Thread.sleep(100);
+      String metadata = new JsonObject().put("version", 1).put("keys", new JsonObject().put("location", "keys/keys.json")).encode();
+      return new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8));
+    });
+    when(cloudStorage.preSignUrl(any())).thenAnswer(i -> new URL("https://example.com/" + i.getArgument(0)));
+
+    CoreServices services = new CoreServices(cloudStorage, authProvider, new AttestationService(), attestationTokenService, enclaveIdentifierProvider);
+    vertx.deployVerticle(() -> new CoreVerticle(services), new DeploymentOptions().setInstances(INSTANCES),
+        testContext.succeeding(id -> testContext.completeNow()));
+  }
+
+  @Test
+  void instancesShareServicesAndMetadataCache(Vertx vertx, VertxTestContext testContext) {
+    WebClient client = WebClient.create(vertx);
+    List<Future> responses = new ArrayList<>();
+    for (int i = 0; i < REQUESTS; i++) {
+      responses.add(client.getAbs(String.format("http://127.0.0.1:%d/key/refresh", Const.Port.ServicePortForCore))
+          .putHeader("Authorization", "Bearer test-key")
+          .send());
+    }
+
+    CompositeFuture.all(responses).onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+      for (int i = 0; i < REQUESTS; i++) {
+        HttpResponse<?> response = all.resultAt(i);
+        assertEquals(200, response.statusCode());
+        assertEquals("https://example.com/keys/keys.json", response.bodyAsJsonObject().getJsonObject("keys").getString("location"));
+      }
+      assertEquals(1, downloads.get());
+      verify(enclaveIdentifierProvider, times(1)).addListener(any());
+      testContext.completeNow();
+    })));
+  }
+}
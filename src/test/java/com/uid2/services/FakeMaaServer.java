@@ -0,0 +1,101 @@
+package com.uid2.services;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the Azure MAA SGX attestation endpoint. Every request is answered with an unsigned token
+ * for the configured enclave, which binds the runtime data (the public key) of the request, as the real service does.
+ * The server can also delay its answers, drop connections or answer with a server error or 429, to test how callers
+ * handle a slow or failing MAA.
+ */
+public class FakeMaaServer {
+    public enum Mode { OK, DROP_CONNECTION, SERVER_ERROR, TOO_MANY_REQUESTS }
+
+    private final Vertx vertx;
+    private final String mrenclave;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile Mode mode = Mode.OK;
+    private final AtomicInteger delayedRequests = new AtomicInteger();
+    private volatile long delayMs;
+    private HttpServer server;
+
+    public FakeMaaServer(Vertx vertx, String mrenclave) {
+        this.vertx = vertx;
+        this.mrenclave = mrenclave;
+    }
+
+    public FakeMaaServer start() throws Exception {
+        server = vertx.createHttpServer()
+                .requestHandler(request -> request.body(body -> {
+                    requests.incrementAndGet();
+                    if (mode == Mode.DROP_CONNECTION) {
+                        request.connection().close();
+                        return;
+                    }
+                    if (mode == Mode.SERVER_ERROR) {
+                        request.response().setStatusCode(503).end("service unavailable");
+                        return;
+                    }
+                    if (mode == Mode.TOO_MANY_REQUESTS) {
+                        request.response().setStatusCode(429).end("too many requests");
+                        return;
+                    }
+
+                    final String runtimeData = body.result().toJsonObject().getJsonObject("RuntimeData").getString("Data");
+                    final String response = new JsonObject().put("token", makeToken(runtimeData)).encode();
+                    if (delayedRequests.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                        vertx.setTimer(delayMs, id -> request.response().end(response));
+                    } else {
+                        request.response().end(response);
+                    }
+                }))
+                .listen(0, "127.0.0.1")
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return this;
+    }
+
+    public void stop() throws Exception {
+        server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.actualPort();
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Delays the answers to the next given number of requests.
+     */
+    public void delayNextRequests(int count, long delayMs) {
+        this.delayMs = delayMs;
+        this.delayedRequests.set(count);
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    private String makeToken(String runtimeData) {
+        final JsonObject claims = new JsonObject()
+                .put("x-ms-sgx-mrenclave", mrenclave)
+                .put("x-ms-sgx-product-id", 770)
+                .put("x-ms-sgx-svn", 2)
+                .put("x-ms-sgx-is-debuggable", false)
+                .put("x-ms-sgx-ehd", runtimeData);
+        return encode(new JsonObject().put("alg", "none")) + "." + encode(claims) + ".signature";
+    }
+
+    private static String encode(JsonObject json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.encode().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,76 @@
+package com.uid2.services;
+
+import com.uid2.core.service.AdaptivePollingStore;
+import com.uid2.shared.store.reader.IMetadataVersionedStore;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAdaptivePollingStore {
+    private final MutableClock clock = new MutableClock(0);
+    private final FakeStore store = new FakeStore();
+    private final AdaptivePollingStore polling = new AdaptivePollingStore(store, 10_000, 60_000, clock);
+
+    @Test
+    public void unchangedStoreIsReadLessOften() throws Exception {
+        pollEvery(10_000, 16);
+
+        // read at 0, 10s, 30s, 70s, then every 60s: 130s
+        assertEquals(5, store.metadataReads);
+        assertEquals(60_000, polling.getIntervalMs());
+    }
+
+    @Test
+    public void changeResetsToMinimumInterval() throws Exception {
+        pollEvery(10_000, 16);
+        store.version = 2;
+
+        clock.setMillis(190_000);
+        assertEquals(2, polling.getVersion(polling.getMetadata()));
+        assertEquals(10_000, polling.getIntervalMs());
+
+        final int reads = store.metadataReads;
+        clock.setMillis(200_000);
+        polling.getMetadata();
+        assertEquals(reads + 1, store.metadataReads);
+    }
+
+    @Test
+    public void pollsBetweenReadsReturnLastMetadata() throws Exception {
+        final JsonObject first = polling.getMetadata();
+        store.version = 2;
+
+        clock.setMillis(4_000);
+        assertSame(first, polling.getMetadata());
+        assertEquals(1, store.metadataReads);
+    }
+
+    private void pollEvery(long intervalMs, int polls) throws Exception {
+        for (int i = 0; i < polls; i++) {
+            clock.setMillis(i * intervalMs);
+            polling.getMetadata();
+        }
+    }
+
+    private static class FakeStore implements IMetadataVersionedStore {
+        private long version = 1;
+        private int metadataReads;
+
+        @Override
+        public JsonObject getMetadata() {
+            metadataReads++;
+            return new JsonObject().put("version", version);
+        }
+
+        @Override
+        public long getVersion(JsonObject metadata) {
+            return metadata.getLong("version");
+        }
+
+        @Override
+        public long loadContent(JsonObject metadata) {
+            return 0;
+        }
+    }
+}
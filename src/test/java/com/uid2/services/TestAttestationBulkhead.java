@@ -0,0 +1,127 @@
+package com.uid2.services;
+
+import com.uid2.core.service.AttestationBulkhead;
+import com.uid2.shared.secure.AttestationResult;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAttestationBulkhead {
+    private final Vertx vertx = Vertx.vertx();
+    private static final AttestationResult SUCCESS = new AttestationResult("public-key".getBytes(StandardCharsets.UTF_8));
+
+    private final List<Handler<AsyncResult<AttestationResult>>> running = Collections.synchronizedList(new ArrayList<>());
+    private final List<AsyncResult<AttestationResult>> results = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void queuesBeyondConcurrencyLimitAndRejectsBeyondQueueLimit() {
+        final AttestationBulkhead bulkhead = new AttestationBulkhead(vertx, "test-limits", 2, 1, 0);
+        for (int i = 0; i < 4; i++) {
+            bulkhead.execute(running::add, results::add);
+        }
+
+        assertEquals(2, running.size());
+        assertEquals(2, bulkhead.getInFlight());
+        assertEquals(1, bulkhead.getQueued());
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).cause() instanceof AttestationBulkhead.Busy);
+
+        running.get(0).handle(Future.succeededFuture(SUCCESS));
+        assertEquals(3, running.size());
+        assertEquals(2, bulkhead.getInFlight());
+        assertEquals(0, bulkhead.getQueued());
+
+        running.get(1).handle(Future.succeededFuture(SUCCESS));
+        running.get(2).handle(Future.succeededFuture(SUCCESS));
+        assertEquals(0, bulkhead.getInFlight());
+        assertEquals(4, results.size());
+    }
+
+    @Test
+    public void timedOutAttestationFailsButHoldsItsSlotUntilProviderAnswers() throws Exception {
+        final AttestationBulkhead bulkhead = new AttestationBulkhead(vertx, "test-timeout", 1, 1, 100);
+        final CompletableFuture<AsyncResult<AttestationResult>> first = new CompletableFuture<>();
+        final CompletableFuture<AsyncResult<AttestationResult>> second = new CompletableFuture<>();
+        bulkhead.execute(running::add, first::complete);
+        bulkhead.execute(h -> h.handle(Future.succeededFuture(SUCCESS)), second::complete);
+
+        assertTrue(first.get(5, TimeUnit.SECONDS).cause() instanceof AttestationBulkhead.Timeout);
+        assertTrue(second.get(5, TimeUnit.SECONDS).cause() instanceof AttestationBulkhead.Timeout);
+        assertEquals(1, bulkhead.getInFlight());
+
+        // the provider answering after the timeout frees the slot but does not reach the caller again
+        running.get(0).handle(Future.succeededFuture(SUCCESS));
+        assertEquals(0, bulkhead.getInFlight());
+        assertTrue(first.get().failed());
+    }
+
+    @Test
+    public void slotOfProviderThatNeverAnswersIsReclaimed() throws Exception {
+        final AttestationBulkhead bulkhead = new AttestationBulkhead(vertx, "test-reclaim", 1, 0, 100);
+        final CompletableFuture<AsyncResult<AttestationResult>> hung = new CompletableFuture<>();
+        bulkhead.execute(running::add, hung::complete);
+
+        assertTrue(hung.get(5, TimeUnit.SECONDS).cause() instanceof AttestationBulkhead.Timeout);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (bulkhead.getInFlight() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the slot to be reclaimed");
+            Thread.sleep(5);
+        }
+
+        bulkhead.execute(h -> h.handle(Future.succeededFuture(SUCCESS)), results::add);
+        assertTrue(results.get(0).result().isSuccess());
+
+        // a late answer from the hung provider does not release the slot a second time
+        running.get(0).handle(Future.succeededFuture(SUCCESS));
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void resultIsDeliveredOnSubmittingContext() throws Exception {
+        final AttestationBulkhead bulkhead = new AttestationBulkhead(vertx, "test-context", 1, 0, 0);
+        final Context context = vertx.getOrCreateContext();
+        final CompletableFuture<Context> delivered = new CompletableFuture<>();
+        context.runOnContext(v -> bulkhead.execute(running::add, ar -> delivered.complete(Vertx.currentContext())));
+        waitForRunning();
+
+        new Thread(() -> running.get(0).handle(Future.succeededFuture(SUCCESS))).start();
+        assertSame(context, delivered.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void providerExceptionReleasesSlot() {
+        final AttestationBulkhead bulkhead = new AttestationBulkhead(vertx, "test-exception", 1, 0, 0);
+        bulkhead.execute(h -> {
+            throw new IllegalStateException("provider failed");
+        }, results::add);
+
+        assertTrue(results.get(0).cause() instanceof IllegalStateException);
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+
+    private void waitForRunning() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (running.isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for attestation to start");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.uid2.services;
+
+import com.uid2.core.service.AttestationResultCache;
+import com.uid2.core.service.AttestationService;
+import com.uid2.shared.model.EnclaveIdentifier;
+import com.uid2.shared.secure.AttestationFailure;
+import com.uid2.shared.secure.AttestationResult;
+import com.uid2.shared.secure.AzureAttestationProvider;
+import com.uid2.shared.secure.IAttestationProvider;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.client.WebClient;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAttestationResultCache {
+    private static final byte[] REQUEST = "attestation-document".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PUBLIC_KEY = "public-key".getBytes(StandardCharsets.UTF_8);
+
+    private final MutableClock clock = new MutableClock(0);
+    private final AttestationResultCache cache = new AttestationResultCache(30_000, 100, clock);
+    private final AtomicInteger attestations = new AtomicInteger();
+
+    @Test
+    public void repeatedRequestReturnsCachedResult() {
+        final AttestationResult first = attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+        final AttestationResult second = attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+
+        assertSame(first, second);
+        assertEquals(1, attestations.get());
+    }
+
+    @Test
+    public void differentPublicKeyIsAttestedAgain() {
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+        attest(REQUEST, "other-key".getBytes(StandardCharsets.UTF_8), Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+
+        assertEquals(2, attestations.get());
+    }
+
+    @Test
+    public void resultExpiresAfterTtl() {
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+        clock.setMillis(29_999);
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+        assertEquals(1, attestations.get());
+
+        clock.setMillis(30_000);
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+        assertEquals(2, attestations.get());
+    }
+
+    @Test
+    public void failedAttestationsAreNotCached() {
+        final List<AsyncResult<AttestationResult>> results = new ArrayList<>();
+        cache.attest("test", REQUEST, PUBLIC_KEY, h -> {
+            attestations.incrementAndGet();
+            h.handle(Future.failedFuture("maa unavailable"));
+        }, results::add);
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(AttestationFailure.UNKNOWN)));
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(AttestationFailure.FORBIDDEN_ENCLAVE)));
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+
+        assertTrue(results.get(0).failed());
+        assertEquals(3, attestations.get());
+    }
+
+    @Test
+    public void badPayloadIsAttestedAgain() {
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(AttestationFailure.BAD_PAYLOAD)));
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(AttestationFailure.BAD_CERTIFICATE)));
+        attest(REQUEST, PUBLIC_KEY, Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+
+        assertEquals(2, attestations.get());
+    }
+
+    @Test
+    public void retryAfterMaaServerErrorReachesMaa() throws Exception {
+        final String mrenclave = "0123456789abcdef";
+        final Vertx vertx = Vertx.vertx();
+        final FakeMaaServer maa = new FakeMaaServer(vertx, mrenclave).start();
+        try {
+            final IAttestationProvider azure = new AzureAttestationProvider(maa.getBaseUrl(), WebClient.create(vertx));
+            azure.registerEnclave(mrenclave);
+
+            maa.setMode(FakeMaaServer.Mode.SERVER_ERROR);
+            final AttestationResult failed = attest(azure);
+            assertEquals(AttestationFailure.BAD_PAYLOAD, failed.getFailure());
+
+            maa.setMode(FakeMaaServer.Mode.OK);
+            final AttestationResult retried = attest(azure);
+            assertTrue(retried.isSuccess(), retried.getReason());
+            assertEquals(2, maa.getRequestCount());
+        } finally {
+            maa.stop();
+            vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void concurrentRequestsShareOneAttestation() {
+        final List<Handler<AsyncResult<AttestationResult>>> pending = new ArrayList<>();
+        final List<AsyncResult<AttestationResult>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            cache.attest("test", REQUEST, PUBLIC_KEY, h -> {
+                attestations.incrementAndGet();
+                pending.add(h);
+            }, results::add);
+        }
+        assertEquals(1, attestations.get());
+        assertTrue(results.isEmpty());
+
+        pending.get(0).handle(Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+        assertEquals(3, results.size());
+        assertTrue(results.stream().allMatch(ar -> ar.succeeded() && ar.result().isSuccess()));
+    }
+
+    @Test
+    public void allowlistChangeClearsCache() throws Exception {
+        final AttestationService service = new AttestationService(cache).with("test", new CountingProvider());
+        final String request = Base64.getEncoder().encodeToString(REQUEST);
+        final String publicKey = Base64.getEncoder().encodeToString(PUBLIC_KEY);
+
+        service.attest("test", request, publicKey, ar -> assertTrue(ar.succeeded()));
+        service.attest("test", request, publicKey, ar -> assertTrue(ar.succeeded()));
+        assertEquals(1, attestations.get());
+
+        service.handle(Collections.singleton(new EnclaveIdentifier("enclave", "test", "id", 0)));
+        assertEquals(0, cache.size());
+        service.attest("test", request, publicKey, ar -> assertTrue(ar.succeeded()));
+        assertEquals(2, attestations.get());
+    }
+
+    private AttestationResult attest(byte[] request, byte[] publicKey, AsyncResult<AttestationResult> result) {
+        final List<AsyncResult<AttestationResult>> results = new ArrayList<>();
+        cache.attest("test", request, publicKey, h -> {
+            attestations.incrementAndGet();
+            h.handle(result);
+        }, results::add);
+        assertEquals(1, results.size());
+        return results.get(0).result();
+    }
+
+    private AttestationResult attest(IAttestationProvider provider) throws Exception {
+        final CompletableFuture<AsyncResult<AttestationResult>> result = new CompletableFuture<>();
+        cache.attest("azure-sgx", REQUEST, PUBLIC_KEY, h -> provider.attest(REQUEST, PUBLIC_KEY, h), result::complete);
+        return result.get(10, TimeUnit.SECONDS).result();
+    }
+
+    private class CountingProvider implements IAttestationProvider {
+        @Override
+        public void attest(byte[] attestationRequest, byte[] publicKey, Handler<AsyncResult<AttestationResult>> handler) {
+            attestations.incrementAndGet();
+            handler.handle(Future.succeededFuture(new AttestationResult(publicKey)));
+        }
+
+        @Override
+        public void registerEnclave(String encodedIdentifier) {
+        }
+
+        @Override
+        public void unregisterEnclave(String encodedIdentifier) {
+        }
+
+        @Override
+        public Collection<String> getEnclaveAllowlist() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.uid2.services;
+
+import com.uid2.core.service.AttestationTokenEncryptor;
+import com.uid2.shared.Const;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAttestationTokenEncryptor {
+    @Test
+    public void encryptedTokenDecryptsWithPrivateKey() throws Exception {
+        final KeyPair keyPair = generateKeyPair();
+        final AttestationTokenEncryptor encryptor = new AttestationTokenEncryptor(10);
+
+        for (int i = 0; i < 3; i++) {
+            final String encrypted = encryptor.encrypt("token-" + i, keyPair.getPublic().getEncoded());
+            assertEquals("token-" + i, decrypt(encrypted, keyPair));
+        }
+        assertEquals(1, encryptor.getPublicKeyCount());
+    }
+
+    @Test
+    public void publicKeysAreEvictedLeastRecentlyUsedFirst() throws Exception {
+        final KeyPair first = generateKeyPair();
+        final AttestationTokenEncryptor encryptor = new AttestationTokenEncryptor(2);
+
+        encryptor.encrypt("token", first.getPublic().getEncoded());
+        encryptor.encrypt("token", generateKeyPair().getPublic().getEncoded());
+        encryptor.encrypt("token", generateKeyPair().getPublic().getEncoded());
+
+        assertEquals(2, encryptor.getPublicKeyCount());
+        assertEquals("token", decrypt(encryptor.encrypt("token", first.getPublic().getEncoded()), first));
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(Const.Name.AsymetricEncryptionKeyClass);
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static String decrypt(String encrypted, KeyPair keyPair) throws Exception {
+        final Cipher cipher = Cipher.getInstance(Const.Name.AsymetricEncryptionCipherClass);
+        cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        return new String(cipher.doFinal(Base64.getDecoder().decode(encrypted)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+package com.uid2.services;
+
+import com.uid2.core.service.CachingAttestationTokenService;
+import com.uid2.shared.attest.AttestationToken;
+import com.uid2.shared.attest.AttestationTokenService;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCachingAttestationTokenService {
+    private static final String ENCRYPTION_KEY = "test-attestation-encryption-key";
+    private static final String ENCRYPTION_SALT = "test-attestation-encryption-salt";
+
+    private final MutableClock clock = new MutableClock(System.currentTimeMillis());
+    // AttestationTokenService checks expiry against the system clock; the wrapped service also checks the test clock
+    private final AttestationTokenService tokens = new AttestationTokenService(ENCRYPTION_KEY, ENCRYPTION_SALT, 7200, ThreadLocalRandom.current(), clock) {
+        @Override
+        public boolean validateToken(String userToken, String attestationToken) {
+            return super.validateToken(userToken, attestationToken) && expiresAt(attestationToken) > clock.millis();
+        }
+    };
+    private final CachingAttestationTokenService service = new CachingAttestationTokenService(
+            tokens, ENCRYPTION_KEY, ENCRYPTION_SALT, 30_000, 2, clock);
+
+    @Test
+    public void validTokenIsValidatedFromCache() {
+        final String token = service.createToken("operator-key");
+
+        assertTrue(service.validateToken("operator-key", token));
+        assertTrue(service.validateToken("operator-key", token));
+
+        assertEquals(1, service.getMisses());
+        assertEquals(1, service.getHits());
+    }
+
+    @Test
+    public void cachedTokenIsNotValidForAnotherOperatorKey() {
+        final String token = service.createToken("operator-key");
+        assertTrue(service.validateToken("operator-key", token));
+
+        assertFalse(service.validateToken("other-operator-key", token));
+        assertFalse(service.validateToken("other-operator-key", token));
+        assertEquals(0, service.getHits());
+        assertEquals(1, service.size());
+    }
+
+    @Test
+    public void cachedTokenIsRevalidatedAfterMaxTtl() {
+        final String token = service.createToken("operator-key");
+        assertTrue(service.validateToken("operator-key", token));
+
+        clock.setMillis(clock.millis() + 29_999);
+        assertTrue(service.validateToken("operator-key", token));
+        assertEquals(1, service.getHits());
+
+        clock.setMillis(clock.millis() + 1);
+        assertTrue(service.validateToken("operator-key", token));
+        assertEquals(2, service.getMisses());
+    }
+
+    @Test
+    public void cachedTokenIsRejectedAtItsOwnExpiry() {
+        final CachingAttestationTokenService longLived = new CachingAttestationTokenService(
+                tokens, ENCRYPTION_KEY, ENCRYPTION_SALT, 24 * 3600 * 1000L, 2, clock);
+        final String token = longLived.createToken("operator-key");
+        final long expiresAt = expiresAt(token);
+        assertTrue(longLived.validateToken("operator-key", token));
+
+        clock.setMillis(expiresAt - 1);
+        assertTrue(longLived.validateToken("operator-key", token));
+        assertEquals(1, longLived.getHits());
+
+        clock.setMillis(expiresAt);
+        assertFalse(longLived.validateToken("operator-key", token));
+        assertEquals(1, longLived.getHits());
+        assertEquals(0, longLived.size());
+    }
+
+    @Test
+    public void invalidTokenIsRejected() {
+        assertFalse(service.validateToken("operator-key", "not-a-token"));
+        assertFalse(service.validateToken("operator-key", null));
+        assertEquals(0, service.size());
+    }
+
+    @Test
+    public void fullCacheDropsExpiredTokensBeforeSkippingNewOnes() {
+        final String first = service.createToken("operator-1");
+        assertTrue(service.validateToken("operator-1", first));
+        assertTrue(service.validateToken("operator-2", service.createToken("operator-2")));
+
+        final String third = service.createToken("operator-3");
+        assertTrue(service.validateToken("operator-3", third));
+        assertTrue(service.validateToken("operator-3", third));
+        assertEquals(2, service.size());
+        assertEquals(4, service.getMisses());
+
+        clock.setMillis(clock.millis() + 30_000);
+        assertTrue(service.validateToken("operator-3", third));
+        assertTrue(service.validateToken("operator-3", third));
+        assertEquals(1, service.size());
+        assertEquals(1, service.getHits());
+    }
+
+    private static long expiresAt(String attestationToken) {
+        return AttestationToken.fromEncrypted(attestationToken, ENCRYPTION_KEY, ENCRYPTION_SALT).getExpiresAt().toEpochMilli();
+    }
+}
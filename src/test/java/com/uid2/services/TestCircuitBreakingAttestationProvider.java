@@ -0,0 +1,247 @@
+package com.uid2.services;
+
+import com.uid2.core.service.AttestationBulkhead;
+import com.uid2.core.service.CircuitBreakingAttestationProvider;
+import com.uid2.core.service.CircuitBreakingAttestationProvider.State;
+import com.uid2.shared.secure.AttestationResult;
+import com.uid2.shared.secure.AzureAttestationProvider;
+import com.uid2.shared.secure.IAttestationProvider;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.client.WebClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCircuitBreakingAttestationProvider {
+    private static final String MRENCLAVE = "0123456789abcdef";
+    private static final byte[] REQUEST = "quote".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PUBLIC_KEY = "public-key".getBytes(StandardCharsets.UTF_8);
+
+    private final MutableClock clock = new MutableClock(0);
+    private Vertx vertx;
+    private FakeMaaServer maa;
+    private IAttestationProvider azure;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        maa = new FakeMaaServer(vertx, MRENCLAVE).start();
+        azure = new AzureAttestationProvider(maa.getBaseUrl(), WebClient.create(vertx));
+        azure.registerEnclave(MRENCLAVE);
+    }
+
+    @AfterEach
+    public void teardown() throws Exception {
+        maa.stop();
+        vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void attestsThroughClosedCircuit() throws Exception {
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-closed", azure, 3, 1000, 0, 0, null, clock);
+
+        final AsyncResult<AttestationResult> result = attest(provider);
+
+        assertTrue(result.succeeded());
+        assertTrue(result.result().isSuccess(), result.result().getReason());
+        assertArrayEquals(PUBLIC_KEY, result.result().getPublicKey());
+        assertEquals(State.CLOSED, provider.getState());
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndRecoversThroughTrialCall() throws Exception {
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-open", azure, 3, 1000, 0, 0, null, clock);
+
+        maa.setMode(FakeMaaServer.Mode.DROP_CONNECTION);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(attest(provider).failed());
+        }
+        assertEquals(State.OPEN, provider.getState());
+
+        // fails fast without reaching MAA while open
+        final AsyncResult<AttestationResult> rejected = attest(provider);
+        assertTrue(rejected.cause() instanceof CircuitBreakingAttestationProvider.CircuitOpen);
+        assertEquals(3, maa.getRequestCount());
+
+        // a failed trial call re-opens the circuit
+        clock.setMillis(1000);
+        assertFalse(attest(provider).cause() instanceof CircuitBreakingAttestationProvider.CircuitOpen);
+        assertEquals(State.OPEN, provider.getState());
+        assertTrue(attest(provider).cause() instanceof CircuitBreakingAttestationProvider.CircuitOpen);
+
+        maa.setMode(FakeMaaServer.Mode.OK);
+        clock.setMillis(2000);
+        assertTrue(attest(provider).result().isSuccess());
+        assertEquals(State.CLOSED, provider.getState());
+    }
+
+    @Test
+    public void opensOnMaaServerErrors() throws Exception {
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-server-error", azure, 3, 1000, 0, 0, null, clock);
+
+        maa.setMode(FakeMaaServer.Mode.SERVER_ERROR);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(attest(provider).result().isSuccess());
+        }
+        assertEquals(State.OPEN, provider.getState());
+        assertTrue(attest(provider).cause() instanceof CircuitBreakingAttestationProvider.CircuitOpen);
+        assertEquals(3, maa.getRequestCount());
+    }
+
+    @Test
+    public void opensOnMaaThrottling() throws Exception {
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-throttled", azure, 3, 1000, 0, 0, null, clock);
+
+        maa.setMode(FakeMaaServer.Mode.TOO_MANY_REQUESTS);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(attest(provider).result().isSuccess());
+        }
+        assertEquals(State.OPEN, provider.getState());
+    }
+
+    @Test
+    public void rejectedAttestationDoesNotCountAsFailure() throws Exception {
+        azure.unregisterEnclave(MRENCLAVE);
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-rejected", azure, 1, 1000, 0, 0, null, clock);
+
+        final AsyncResult<AttestationResult> result = attest(provider);
+
+        assertTrue(result.succeeded());
+        assertFalse(result.result().isSuccess());
+        assertEquals(State.CLOSED, provider.getState());
+    }
+
+    @Test
+    public void slowCallIsHedged() throws Exception {
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-hedge", azure, 3, 1000, 0, 0.9, AttestationBulkhead.unbounded("test-hedge"), clock);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(attest(provider).result().isSuccess());
+        }
+
+        maa.delayNextRequests(1, 5000);
+        final AsyncResult<AttestationResult> result = attest(provider, 2);
+        assertTrue(result.result().isSuccess());
+        assertEquals(22, maa.getRequestCount());
+    }
+
+    @Test
+    public void slowCallIsNotHedgedWhileBulkheadIsFull() throws Exception {
+        final AttestationBulkhead bulkhead = new AttestationBulkhead(vertx, "test-hedge-full", 1, 0, 0);
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-hedge-full", azure, 3, 1000, 0, 0.9, bulkhead, clock);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(attest(provider).result().isSuccess());
+        }
+
+        maa.delayNextRequests(1, 500);
+        final CompletableFuture<AsyncResult<AttestationResult>> result = new CompletableFuture<>();
+        bulkhead.execute(h -> provider.attest(REQUEST, PUBLIC_KEY, h), result::complete);
+        assertTrue(result.get(10, TimeUnit.SECONDS).result().isSuccess());
+        assertEquals(21, maa.getRequestCount());
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void failedCallWaitsForOutstandingHedge() throws Exception {
+        final List<Handler<AsyncResult<AttestationResult>>> calls = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger fastCalls = new AtomicInteger();
+        final IAttestationProvider stub = new StubProvider() {
+            @Override
+            public void attest(byte[] attestationRequest, byte[] publicKey, Handler<AsyncResult<AttestationResult>> handler) {
+                if (fastCalls.getAndIncrement() < 20) {
+                    handler.handle(Future.succeededFuture(new AttestationResult(publicKey)));
+                } else {
+                    calls.add(handler);
+                }
+            }
+        };
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-hedge-failure", stub, 3, 1000, 0, 0.5, AttestationBulkhead.unbounded("test-hedge-failure"), clock);
+        for (int i = 0; i < 20; i++) {
+            attest(provider);
+        }
+
+        final CompletableFuture<AsyncResult<AttestationResult>> result = new CompletableFuture<>();
+        provider.attest(REQUEST, PUBLIC_KEY, result::complete);
+        while (calls.size() < 2) {
+            Thread.sleep(10);
+        }
+        calls.get(0).handle(Future.failedFuture("connection reset"));
+        assertFalse(result.isDone());
+        calls.get(1).handle(Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+
+        assertTrue(result.get(1, TimeUnit.SECONDS).succeeded());
+    }
+
+    @Test
+    public void hungCallCountsAsFailureAtDeadline() throws Exception {
+        final List<Handler<AsyncResult<AttestationResult>>> calls = Collections.synchronizedList(new ArrayList<>());
+        final IAttestationProvider stub = new StubProvider() {
+            @Override
+            public void attest(byte[] attestationRequest, byte[] publicKey, Handler<AsyncResult<AttestationResult>> handler) {
+                calls.add(handler);
+            }
+        };
+        final CircuitBreakingAttestationProvider provider = new CircuitBreakingAttestationProvider(vertx, "test-deadline", stub, 1, 1000, 100, 0, null, clock);
+
+        final CompletableFuture<AsyncResult<AttestationResult>> hung = new CompletableFuture<>();
+        provider.attest(REQUEST, PUBLIC_KEY, hung::complete);
+        waitForState(provider, State.OPEN);
+
+        // a hung trial call re-opens the circuit rather than leaving it half-open
+        clock.setMillis(1000);
+        provider.attest(REQUEST, PUBLIC_KEY, ar -> {});
+        assertEquals(State.HALF_OPEN, provider.getState());
+        waitForState(provider, State.OPEN);
+
+        // the late answer still reaches the caller without closing the circuit
+        calls.get(0).handle(Future.succeededFuture(new AttestationResult(PUBLIC_KEY)));
+        assertTrue(hung.get(1, TimeUnit.SECONDS).succeeded());
+        assertEquals(State.OPEN, provider.getState());
+    }
+
+    private static void waitForState(CircuitBreakingAttestationProvider provider, State state) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (provider.getState() != state) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for " + state);
+            Thread.sleep(10);
+        }
+    }
+
+    private static AsyncResult<AttestationResult> attest(IAttestationProvider provider) throws Exception {
+        return attest(provider, 10);
+    }
+
+    private static AsyncResult<AttestationResult> attest(IAttestationProvider provider, int timeoutSeconds) throws Exception {
+        final CompletableFuture<AsyncResult<AttestationResult>> result = new CompletableFuture<>();
+        provider.attest(REQUEST, PUBLIC_KEY, result::complete);
+        return result.get(timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    private abstract static class StubProvider implements IAttestationProvider {
+        @Override
+        public void registerEnclave(String encodedIdentifier) {
+        }
+
+        @Override
+        public void unregisterEnclave(String encodedIdentifier) {
+        }
+
+        @Override
+        public Collection<String> getEnclaveAllowlist() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.uid2.services;
+
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.core.util.ContentEncoding;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestContentEncoding {
+    @Test
+    public void negotiatePrefersGzip() {
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("br, deflate"));
+    }
+
+    @Test
+    public void negotiateHonoursRejectedCodings() {
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, deflate;q=0.5"));
+        assertNull(ContentEncoding.negotiate("gzip;q=0.0"));
+        assertNull(ContentEncoding.negotiate("br"));
+        assertNull(ContentEncoding.negotiate(null));
+    }
+
+    @Test
+    public void encodedBodiesDecodeToOriginal() throws IOException {
+        final Buffer body = Buffer.buffer("{\"salts\":[" + "{\"location\":\"salts/salts.txt\"},".repeat(50) + "{}]}");
+
+        assertEquals(body, decode(new GZIPInputStream(new ByteArrayInputStream(ContentEncoding.encode(body, ContentEncoding.GZIP, 6).getBytes()))));
+        assertEquals(body, decode(new InflaterInputStream(new ByteArrayInputStream(ContentEncoding.encode(body, ContentEncoding.DEFLATE, 6).getBytes()))));
+    }
+
+    @Test
+    public void compressedDocumentCarriesEveryEncoding() throws IOException {
+        final Buffer body = Buffer.buffer("{\"salts\":[" + "{\"location\":\"salts/salts.txt\"},".repeat(50) + "{}]}");
+        final MetadataDocument document = new MetadataDocument("salts/metadata.json", body, "v1").compress(6, 1024);
+
+        assertEquals(body, decode(new GZIPInputStream(new ByteArrayInputStream(document.getBody(ContentEncoding.GZIP).getBytes()))));
+        assertEquals(body, decode(new InflaterInputStream(new ByteArrayInputStream(document.getBody(ContentEncoding.DEFLATE).getBytes()))));
+        assertSame(document.getBody(ContentEncoding.GZIP), document.asStale().getBody(ContentEncoding.GZIP));
+    }
+
+    @Test
+    public void smallDocumentIsNotCompressed() {
+        final MetadataDocument document = new MetadataDocument("salts/metadata.json", Buffer.buffer("{\"version\":1}"), "v1");
+
+        assertSame(document, document.compress(6, 1024));
+        assertNull(document.getBody(ContentEncoding.GZIP));
+    }
+
+    private static Buffer decode(InputStream in) throws IOException {
+        try (InputStream decoder = in) {
+            return Buffer.buffer(decoder.readAllBytes());
+        }
+    }
+}
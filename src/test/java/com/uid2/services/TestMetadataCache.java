@@ -0,0 +1,204 @@
+package com.uid2.services;
+
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.core.service.MetadataCache;
+import com.uid2.core.util.ContentEncoding;
+import com.uid2.shared.health.HealthComponent;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMetadataCache {
+    private MutableClock clock;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    public void setup() {
+        clock = new MutableClock(1000L);
+        loads = new AtomicInteger();
+    }
+
+    private MetadataDocument load(String path) {
+        int load = loads.incrementAndGet();
+        return new MetadataDocument(path, new JsonObject().put("path", path).put("load", load).toBuffer(), path + "-" + load);
+    }
+
+    @Test
+    public void testReturnsCachedDocumentWithinTtl() throws Exception {
+        MetadataCache cache = new MetadataCache(30000, 10, clock);
+
+        MetadataDocument first = cache.get("keys/metadata.json", () -> load("keys/metadata.json")).join();
+        clock.setMillis(30999L);
+        MetadataDocument second = cache.get("keys/metadata.json", () -> load("keys/metadata.json")).join();
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(first.getBody(), second.getBody());
+    }
+
+    @Test
+    public void testReloadsAfterTtl() throws Exception {
+        MetadataCache cache = new MetadataCache(30000, 10, clock);
+
+        cache.get("keys/metadata.json", () -> load("keys/metadata.json")).join();
+        clock.setMillis(31000L);
+        MetadataDocument reloaded = cache.get("keys/metadata.json", () -> load("keys/metadata.json")).join();
+
+        assertEquals(2, loads.get());
+        assertEquals(2, new JsonObject(reloaded.getBody()).getInteger("load"));
+    }
+
+    @Test
+    public void testKeyedByResolvedPath() throws Exception {
+        MetadataCache cache = new MetadataCache(30000, 10, clock);
+
+        MetadataDocument global = cache.get("keys/metadata.json", () -> load("keys/metadata.json")).join();
+        MetadataDocument site = cache.get("keys/site/10/metadata.json", () -> load("keys/site/10/metadata.json")).join();
+
+        assertEquals(2, loads.get());
+        assertEquals("keys/metadata.json", new JsonObject(global.getBody()).getString("path"));
+        assertEquals("keys/site/10/metadata.json", new JsonObject(site.getBody()).getString("path"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWhenFull() throws Exception {
+        MetadataCache cache = new MetadataCache(30000, 2, clock);
+
+        cache.get("a", () -> load("a")).join();
+        cache.get("b", () -> load("b")).join();
+        cache.get("a", () -> load("a")).join();
+        cache.get("c", () -> load("c")).join();
+        assertEquals(2, cache.size());
+        assertEquals(3, loads.get());
+
+        cache.get("a", () -> load("a")).join();
+        assertEquals(3, loads.get());
+        cache.get("b", () -> load("b")).join();
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        MetadataCache cache = new MetadataCache(30000, 10, clock);
+
+        assertThrows(Exception.class, () -> cache.get("a", () -> { throw new Exception("storage unavailable"); }).join());
+        cache.get("a", () -> load("a")).join();
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testDisabledCacheAlwaysLoads() throws Exception {
+        MetadataCache cache = MetadataCache.disabled();
+
+        cache.get("a", () -> load("a")).join();
+        cache.get("a", () -> load("a")).join();
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testServesExpiredEntryWhileRefreshingInBackground() throws Exception {
+        List<Runnable> backgroundTasks = new ArrayList<>();
+        MetadataCache cache = new MetadataCache(30000, 600000, 10, backgroundTasks::add, null, clock);
+
+        MetadataDocument first = cache.get("a", () -> load("a")).join();
+        clock.setMillis(31000L);
+        MetadataDocument served = cache.get("a", () -> load("a")).join();
+        cache.get("a", () -> load("a")).join();
+
+        assertSame(first, served);
+        assertFalse(served.isStale());
+        assertEquals(1, loads.get());
+        assertEquals(1, backgroundTasks.size());
+
+        backgroundTasks.get(0).run();
+        assertEquals(2, loads.get());
+        assertEquals(2, new JsonObject(cache.get("a", () -> load("a")).join().getBody()).getInteger("load"));
+    }
+
+    @Test
+    public void testServesStaleDocumentWhenLoadFails() throws Exception {
+        HealthComponent health = new HealthComponent("metadata-cache", true);
+        MetadataCache cache = new MetadataCache(30000, 600000, 10, null, health, clock);
+
+        MetadataDocument first = cache.get("a", () -> load("a")).join();
+        clock.setMillis(31000L);
+        MetadataDocument stale = cache.get("a", () -> { throw new Exception("storage unavailable"); }).join();
+
+        assertTrue(stale.isStale());
+        assertEquals(first.getVersion(), stale.getVersion());
+        assertEquals(first.getBody(), stale.getBody());
+        assertTrue(health.isHealthy());
+
+        MetadataDocument fresh = cache.get("a", () -> load("a")).join();
+        assertFalse(fresh.isStale());
+    }
+
+    @Test
+    public void testBackgroundRefreshFailureMarksServedDocumentStale() throws Exception {
+        List<Runnable> backgroundTasks = new ArrayList<>();
+        MetadataCache cache = new MetadataCache(30000, 600000, 10, backgroundTasks::add, null, clock);
+
+        cache.get("a", () -> load("a")).join();
+        clock.setMillis(31000L);
+        cache.get("a", () -> { throw new Exception("storage unavailable"); }).join();
+        backgroundTasks.get(0).run();
+
+        assertTrue(cache.get("a", () -> load("a")).join().isStale());
+    }
+
+    @Test
+    public void testFailsAndReportsUnhealthyAfterMaxStaleness() throws Exception {
+        HealthComponent health = new HealthComponent("metadata-cache", true);
+        MetadataCache cache = new MetadataCache(30000, 600000, 10, null, health, clock);
+
+        cache.get("a", () -> load("a")).join();
+        clock.setMillis(601000L);
+        assertThrows(Exception.class, () -> cache.get("a", () -> { throw new Exception("storage unavailable"); }).join());
+        assertFalse(health.isHealthy());
+
+        cache.get("a", () -> load("a")).join();
+        assertTrue(health.isHealthy());
+    }
+
+    @Test
+    public void testStaysHealthyWhileAnyPathIsWithinMaxStaleness() throws Exception {
+        HealthComponent health = new HealthComponent("metadata-cache", true);
+        MetadataCache cache = new MetadataCache(30000, 600000, 10, null, health, clock);
+
+        cache.get("a", () -> load("a")).join();
+        clock.setMillis(301000L);
+        cache.get("b", () -> load("b")).join();
+        clock.setMillis(601000L);
+        assertThrows(Exception.class, () -> cache.get("a", () -> { throw new Exception("storage unavailable"); }).join());
+        assertTrue(health.isHealthy());
+
+        clock.setMillis(901000L);
+        assertThrows(Exception.class, () -> cache.get("b", () -> { throw new Exception("storage unavailable"); }).join());
+        assertFalse(health.isHealthy());
+    }
+
+    @Test
+    public void testCompressesEachLoadedDocumentOnce() throws Exception {
+        AtomicInteger compressions = new AtomicInteger();
+        MetadataCache cache = new MetadataCache(30000, 30000, 10, null, document -> {
+            compressions.incrementAndGet();
+            return document.compress(6, 0);
+        }, null, clock);
+
+        MetadataDocument first = cache.get("a", () -> load("a")).join();
+        MetadataDocument second = cache.get("a", () -> load("a")).join();
+
+        assertEquals(1, compressions.get());
+        assertNotNull(first.getBody(ContentEncoding.GZIP));
+        assertSame(first.getBody(ContentEncoding.GZIP), second.getBody(ContentEncoding.GZIP));
+    }
+}
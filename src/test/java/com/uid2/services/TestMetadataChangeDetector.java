@@ -0,0 +1,54 @@
+package com.uid2.services;
+
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.core.service.MetadataCache;
+import com.uid2.core.service.MetadataChangeDetector;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMetadataChangeDetector {
+    private final MutableClock clock = new MutableClock(1000L);
+    private final AtomicInteger version = new AtomicInteger(1);
+    private final List<MetadataDocument> changes = new ArrayList<>();
+
+    private MetadataDocument load(String path) {
+        return new MetadataDocument(path, Buffer.buffer("{}"), path + "-" + version.get());
+    }
+
+    @Test
+    public void testNotifiesWatchersWhenCachingIsDisabled() throws Exception {
+        MetadataCache cache = new MetadataCache(0, 10, clock);
+        MetadataChangeDetector detector = new MetadataChangeDetector(cache);
+
+        MetadataDocument current = cache.get("a", () -> load("a")).join();
+        detector.watch("a", current.getVersion(), changes::add);
+        version.incrementAndGet();
+        detector.poll();
+
+        assertEquals(1, changes.size());
+        assertEquals("a-2", changes.get(0).getVersion());
+    }
+
+    @Test
+    public void testNotifiesWatchersOfEvictedPath() throws Exception {
+        MetadataCache cache = new MetadataCache(30000, 1, clock);
+        MetadataChangeDetector detector = new MetadataChangeDetector(cache);
+
+        MetadataDocument current = cache.get("a", () -> load("a")).join();
+        detector.watch("a", current.getVersion(), changes::add);
+        cache.get("b", () -> load("b")).join();
+        assertEquals(1, cache.size());
+
+        version.incrementAndGet();
+        detector.poll();
+
+        assertEquals(1, changes.size());
+        assertEquals("a-2", changes.get(0).getVersion());
+    }
+}
@@ -0,0 +1,187 @@
+package com.uid2.services;
+
+import com.uid2.core.model.MetadataDocument;
+import com.uid2.core.model.MetadataTemplate;
+import com.uid2.core.service.MetadataLocationRewriter;
+import com.uid2.core.service.MetadataTemplates;
+import com.uid2.shared.cloud.CloudStorageException;
+import com.uid2.shared.cloud.ICloudStorage;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+public class TestMetadataTemplates {
+    @Mock private ICloudStorage downloadUrlGenerator;
+    private AtomicInteger decodes;
+    private MetadataLocationRewriter saltsRewriter;
+    private MetadataTemplates templates;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        when(downloadUrlGenerator.preSignUrl(any())).thenAnswer(i -> new URL("https://example.com/" + i.getArgument(0) + "?sig=a&b=é"));
+        decodes = new AtomicInteger();
+        saltsRewriter = new MetadataLocationRewriter("salts") {
+            @Override
+            public MetadataTemplate rewrite(byte[] content, String version) throws IOException {
+                decodes.incrementAndGet();
+                return super.rewrite(content, version);
+            }
+        };
+        templates = new MetadataTemplates(downloadUrlGenerator);
+    }
+
+    private static String saltsMetadata(int version, int entries) {
+        JsonArray salts = new JsonArray();
+        for (int i = 0; i < entries; i++) {
+            salts.add(new JsonObject().put("effective", i).put("location", "salts/salts.txt." + i).put("size", 10));
+        }
+        return new JsonObject().put("version", version).put("id_prefix", "a\"b").put("salts", salts).encode();
+    }
+
+    private MetadataDocument render(String path, String original) throws Exception {
+        return templates.render(path, new ByteArrayInputStream(original.getBytes(StandardCharsets.UTF_8)), saltsRewriter);
+    }
+
+    @Test
+    public void testRendersPreSignedLocations() throws Exception {
+        MetadataDocument document = render("salts/metadata.json", saltsMetadata(1, 3));
+
+        JsonObject json = new JsonObject(document.getBody().toString());
+        assertEquals(1, json.getInteger("version"));
+        assertEquals("a\"b", json.getString("id_prefix"));
+        for (int i = 0; i < 3; i++) {
+            JsonObject salt = json.getJsonArray("salts").getJsonObject(i);
+            assertEquals("https://example.com/salts/salts.txt." + i + "?sig=a&b=é", salt.getString("location"));
+            assertEquals(i, salt.getInteger("effective"));
+            assertEquals(10, salt.getInteger("size"));
+        }
+        assertEquals(json, new JsonObject(document.getBody()));
+    }
+
+    @Test
+    public void testRejectsMissingOrMalformedHolder() {
+        assertThrows(IOException.class, () -> render("salts/metadata.json", new JsonObject().put("version", 1).encode()));
+        assertThrows(IOException.class, () -> render("salts/metadata.json", new JsonObject().put("salts", "salts.txt").encode()));
+        assertThrows(IOException.class, () -> render("salts/metadata.json", new JsonObject()
+                .put("salts", new JsonArray().add(new JsonObject().put("effective", 0))).encode()));
+    }
+
+    @Test
+    public void testReusesTemplateForUnchangedVersion() throws Exception {
+        String original = saltsMetadata(1, 3);
+        MetadataDocument first = render("salts/metadata.json", original);
+        MetadataDocument second = render("salts/metadata.json", original);
+
+        assertEquals(1, decodes.get());
+        assertEquals(first.getVersion(), second.getVersion());
+        assertEquals(first.getBody(), second.getBody());
+    }
+
+    @Test
+    public void testRebuildsTemplateWhenVersionChanges() throws Exception {
+        MetadataDocument first = render("salts/metadata.json", saltsMetadata(1, 3));
+        MetadataDocument second = render("salts/metadata.json", saltsMetadata(2, 4));
+
+        assertEquals(2, decodes.get());
+        assertNotEquals(first.getVersion(), second.getVersion());
+        assertEquals(4, new JsonObject(second.getBody()).getJsonArray("salts").size());
+    }
+
+    @Test
+    public void testKeepsTemplatePerPath() throws Exception {
+        render("salts/metadata.json", saltsMetadata(1, 1));
+        render("salts/site/10/metadata.json", saltsMetadata(1, 1));
+        render("salts/metadata.json", saltsMetadata(1, 1));
+
+        assertEquals(2, decodes.get());
+    }
+
+    @Test
+    public void testVersionMatchesOriginalContent() throws Exception {
+        String original = saltsMetadata(1, 1);
+        assertEquals(MetadataDocument.versionOf(original.getBytes(StandardCharsets.UTF_8)), render("salts/metadata.json", original).getVersion());
+    }
+
+    @Test
+    public void testRewritesOnlyLocationsOfHolder() throws Exception {
+        String original = new JsonObject()
+                .put("location", "top")
+                .put("keys", new JsonObject().put("location", "keys/keys.json").put("nested", new JsonObject().put("location", "nested")))
+                .put("other", new JsonObject().put("location", "other"))
+                .put("list", new JsonArray().add(new JsonObject().put("location", "list")))
+                .encode();
+
+        MetadataTemplate template = new MetadataLocationRewriter("keys").rewrite(original.getBytes(StandardCharsets.UTF_8), "v1");
+        assertEquals(1, template.getLocations().size());
+        assertEquals("keys/keys.json", template.getLocations().get(0));
+
+        JsonObject json = new JsonObject(template.render("keys/metadata.json", Collections.singletonList("https://example.com/keys")).getBody());
+        assertEquals("top", json.getString("location"));
+        assertEquals("https://example.com/keys", json.getJsonObject("keys").getString("location"));
+        assertEquals("nested", json.getJsonObject("keys").getJsonObject("nested").getString("location"));
+        assertEquals("other", json.getJsonObject("other").getString("location"));
+        assertEquals("list", json.getJsonArray("list").getJsonObject(0).getString("location"));
+    }
+
+    @Test
+    public void testRewritesLocationsOfArrayHolderInOrder() throws Exception {
+        MetadataTemplate template = new MetadataLocationRewriter("salts").rewrite(saltsMetadata(1, 3).getBytes(StandardCharsets.UTF_8), "v1");
+
+        assertEquals(Arrays.asList("salts/salts.txt.0", "salts/salts.txt.1", "salts/salts.txt.2"), template.getLocations());
+    }
+
+    @Test
+    public void testRejectsNonStringLocation() {
+        byte[] original = "{\"keys\":{\"location\":1}}".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> new MetadataLocationRewriter("keys").rewrite(original, "v1"));
+    }
+
+    @Test
+    public void testPreSignsInParallelInOrder() throws Exception {
+        ExecutorService signingExecutor = Executors.newFixedThreadPool(3);
+        try {
+            MetadataTemplates parallel = new MetadataTemplates(downloadUrlGenerator, signingExecutor, 4);
+            MetadataDocument document = parallel.render("salts/metadata.json",
+                    new ByteArrayInputStream(saltsMetadata(1, 10).getBytes(StandardCharsets.UTF_8)), saltsRewriter);
+
+            JsonArray salts = new JsonObject(document.getBody()).getJsonArray("salts");
+            assertEquals(10, salts.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("https://example.com/salts/salts.txt." + i + "?sig=a&b=é", salts.getJsonObject(i).getString("location"));
+            }
+        } finally {
+            signingExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelPreSignFailureIsRethrown() throws Exception {
+        when(downloadUrlGenerator.preSignUrl("salts/salts.txt.9")).thenThrow(new CloudStorageException("signing failed"));
+        ExecutorService signingExecutor = Executors.newFixedThreadPool(3);
+        try {
+            MetadataTemplates parallel = new MetadataTemplates(downloadUrlGenerator, signingExecutor, 4);
+            assertThrows(CloudStorageException.class, () -> parallel.render("salts/metadata.json",
+                    new ByteArrayInputStream(saltsMetadata(1, 10).getBytes(StandardCharsets.UTF_8)), saltsRewriter));
+        } finally {
+            signingExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.uid2.services;
+
+import com.uid2.core.service.PreSignedUrlCachingStorage;
+import com.uid2.shared.cloud.ICloudStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TestPreSignedUrlCachingStorage {
+    private static final long EXPIRY_SECONDS = 1800;
+
+    private ICloudStorage storage;
+    private MutableClock clock;
+    private List<Runnable> backgroundTasks;
+    private PreSignedUrlCachingStorage cachingStorage;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        storage = mock(ICloudStorage.class);
+        AtomicInteger signatures = new AtomicInteger();
+        when(storage.preSignUrl(any())).thenAnswer(i -> new URL("https://bucket/" + i.getArgument(0) + "?sig=" + signatures.incrementAndGet()));
+        clock = new MutableClock(0);
+        backgroundTasks = new ArrayList<>();
+        cachingStorage = new PreSignedUrlCachingStorage(storage, EXPIRY_SECONDS, 100, backgroundTasks::add, clock);
+    }
+
+    @Test
+    public void testReusesUrlWhileMoreThanHalfValidityLeft() throws Exception {
+        URL first = cachingStorage.preSignUrl("salts/1.txt");
+        clock.setMillis(EXPIRY_SECONDS * 1000 * 39 / 100);
+        URL second = cachingStorage.preSignUrl("salts/1.txt");
+
+        assertSame(first, second);
+        verify(storage, times(1)).preSignUrl("salts/1.txt");
+        assertTrue(backgroundTasks.isEmpty());
+    }
+
+    @Test
+    public void testCachesPerLocation() throws Exception {
+        URL first = cachingStorage.preSignUrl("salts/1.txt");
+        URL second = cachingStorage.preSignUrl("salts/2.txt");
+
+        assertNotEquals(first, second);
+        assertEquals(2, cachingStorage.size());
+    }
+
+    @Test
+    public void testRefreshesInBackgroundBeforeHalfExpiry() throws Exception {
+        URL first = cachingStorage.preSignUrl("salts/1.txt");
+        clock.setMillis(EXPIRY_SECONDS * 1000 * 45 / 100);
+
+        assertSame(first, cachingStorage.preSignUrl("salts/1.txt"));
+        assertSame(first, cachingStorage.preSignUrl("salts/1.txt"));
+        assertEquals(1, backgroundTasks.size());
+
+        backgroundTasks.get(0).run();
+        URL refreshed = cachingStorage.preSignUrl("salts/1.txt");
+        assertNotEquals(first, refreshed);
+        verify(storage, times(2)).preSignUrl("salts/1.txt");
+    }
+
+    @Test
+    public void testSignsSynchronouslyOnceHalfExpired() throws Exception {
+        URL first = cachingStorage.preSignUrl("salts/1.txt");
+        clock.setMillis(EXPIRY_SECONDS * 1000 / 2);
+
+        URL second = cachingStorage.preSignUrl("salts/1.txt");
+
+        assertNotEquals(first, second);
+        assertTrue(backgroundTasks.isEmpty());
+    }
+
+    @Test
+    public void testNoCachingWithoutExpiry() throws Exception {
+        PreSignedUrlCachingStorage uncached = new PreSignedUrlCachingStorage(storage, 0, 100, backgroundTasks::add, clock);
+
+        uncached.preSignUrl("salts/1.txt");
+        uncached.preSignUrl("salts/1.txt");
+
+        verify(storage, times(2)).preSignUrl("salts/1.txt");
+        assertEquals(0, uncached.size());
+    }
+}
@@ -0,0 +1,98 @@
+package com.uid2.services;
+
+import com.uid2.core.service.SingleFlight;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSingleFlight {
+    private static final int CALLERS = 8;
+
+    @Test
+    public void testConcurrentCallersShareOneLoad() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<CompletableFuture<String>>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(pool.submit(() -> singleFlight.execute("salts/metadata.json", () -> {
+                    loads.incrementAndGet();
+                    release.await();
+                    return "loaded";
+                })));
+            }
+
+            waitFor(() -> singleFlight.getCoalescedCount() == CALLERS - 1);
+            release.countDown();
+
+            for (Future<CompletableFuture<String>> result : results) {
+                assertEquals("loaded", result.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+            assertEquals(CALLERS - 1, singleFlight.getCoalescedCount());
+            assertEquals(0, singleFlight.getInFlightCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotRemembered() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<CompletableFuture<String>> first = pool.submit(() -> singleFlight.execute("salts/metadata.json", () -> {
+                release.await();
+                throw new IllegalStateException("storage unavailable");
+            }));
+            waitFor(() -> singleFlight.getInFlightCount() == 1);
+            Future<CompletableFuture<String>> second = pool.submit(() -> singleFlight.execute("salts/metadata.json", () -> "unexpected"));
+            waitFor(() -> singleFlight.getCoalescedCount() == 1);
+            assertFalse(second.get(5, TimeUnit.SECONDS).isDone());
+            release.countDown();
+
+            for (Future<CompletableFuture<String>> result : Arrays.asList(first, second)) {
+                Exception e = assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals("loaded", singleFlight.execute("salts/metadata.json", () -> "loaded").join());
+    }
+
+    @Test
+    public void testDifferentKeysLoadIndependently() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+
+        assertEquals("keys", singleFlight.execute("keys/metadata.json", () -> "keys").join());
+        assertEquals("salts", singleFlight.execute("salts/metadata.json", () -> "salts").join());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for condition");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.uid2.services;
+
+import com.uid2.core.service.AttestationService;
+import com.uid2.core.service.SwappingAttestationProvider;
+import com.uid2.shared.model.EnclaveIdentifier;
+import com.uid2.shared.secure.AttestationException;
+import com.uid2.shared.secure.AttestationResult;
+import com.uid2.shared.secure.IAttestationProvider;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSwappingAttestationProvider {
+    private final List<AllowlistProvider> created = new ArrayList<>();
+
+    @Test
+    public void batchIsPublishedAsNewProvider() throws Exception {
+        final SwappingAttestationProvider provider = new SwappingAttestationProvider("test", this::create);
+        provider.updateEnclaveAllowlist(Arrays.asList("a", "b"), Collections.emptyList());
+        final AllowlistProvider first = created.get(created.size() - 1);
+
+        provider.updateEnclaveAllowlist(Collections.singletonList("c"), Collections.singletonList("a"));
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), first.allowlist);
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")), new HashSet<>(provider.getEnclaveAllowlist()));
+    }
+
+    @Test
+    public void identifierThatFailsToRegisterIsSkipped() throws Exception {
+        final SwappingAttestationProvider provider = new SwappingAttestationProvider("test", this::create);
+
+        provider.updateEnclaveAllowlist(Arrays.asList("a", "bad"), Collections.emptyList());
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(provider.getEnclaveAllowlist()));
+
+        assertThrows(AttestationException.class, () -> provider.registerEnclave("bad"));
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(provider.getEnclaveAllowlist()));
+    }
+
+    @Test
+    public void unchangedRotationLeavesProvidersAlone() throws Exception {
+        final AttestationService service = new AttestationService()
+                .with("one", new SwappingAttestationProvider("one", this::create))
+                .with("two", new SwappingAttestationProvider("two", this::create));
+        final Set<EnclaveIdentifier> enclaves = new HashSet<>(Arrays.asList(
+                new EnclaveIdentifier("enclave-1", "one", "a", 0),
+                new EnclaveIdentifier("enclave-2", "two", "b", 0)));
+
+        service.handle(enclaves);
+        final int providers = created.size();
+        service.handle(new HashSet<>(enclaves));
+        assertEquals(providers, created.size());
+
+        enclaves.add(new EnclaveIdentifier("enclave-3", "two", "c", 0));
+        service.handle(enclaves);
+        assertEquals(providers + 1, created.size());
+        assertEquals(Arrays.asList("a", "b", "c"), service.listEnclaves().stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void manuallyRegisteredEnclaveSurvivesRotation() throws Exception {
+        final AttestationService service = new AttestationService().with("one", new SwappingAttestationProvider("one", this::create));
+        service.handle(Collections.singleton(new EnclaveIdentifier("enclave-1", "one", "a", 0)));
+        service.registerEnclave("one", "manual");
+
+        service.handle(new HashSet<>(Arrays.asList(
+                new EnclaveIdentifier("enclave-1", "one", "a", 0),
+                new EnclaveIdentifier("enclave-2", "one", "b", 0))));
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "manual")), new HashSet<>(service.listEnclaves()));
+    }
+
+    private IAttestationProvider create() {
+        final AllowlistProvider provider = new AllowlistProvider();
+        created.add(provider);
+        return provider;
+    }
+
+    private static class AllowlistProvider implements IAttestationProvider {
+        private final Set<String> allowlist = new HashSet<>();
+
+        @Override
+        public void attest(byte[] attestationRequest, byte[] publicKey, Handler<AsyncResult<AttestationResult>> handler) {
+            handler.handle(Future.succeededFuture(new AttestationResult(publicKey)));
+        }
+
+        @Override
+        public void registerEnclave(String encodedIdentifier) throws AttestationException {
+            if (encodedIdentifier.equals("bad")) {
+                throw new AttestationException("bad identifier");
+            }
+            allowlist.add(encodedIdentifier);
+        }
+
+        @Override
+        public void unregisterEnclave(String encodedIdentifier) {
+            allowlist.remove(encodedIdentifier);
+        }
+
+        @Override
+        public Collection<String> getEnclaveAllowlist() {
+            return allowlist;
+        }
+    }
+}